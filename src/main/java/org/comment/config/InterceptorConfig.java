@@ -1,8 +1,14 @@
 package org.comment.config;
 
+import org.comment.utils.CacheCodecs;
+import org.comment.utils.CacheMetrics;
+import org.comment.utils.ClientSideCache;
 import org.comment.utils.LoginInterceptor;
 import org.comment.utils.RefreshTokenInterceptor;
+import org.comment.utils.SecKillAdmission;
+import org.comment.utils.SecKillAdmissionInterceptor;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
@@ -15,6 +21,21 @@ public class InterceptorConfig implements WebMvcConfigurer {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private CacheCodecs cacheCodecs;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ClientSideCache clientSideCache;
+
+    @Resource
+    private SecKillAdmission secKillAdmission;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(new LoginInterceptor())
@@ -31,6 +52,7 @@ public class InterceptorConfig implements WebMvcConfigurer {
                         "/doc-api.html",
                         "/doc-api.html/*"
                 ).order(1);
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate, byteRedisTemplate, cacheCodecs, cacheMetrics, clientSideCache)).addPathPatterns("/**").order(0);
+        registry.addInterceptor(new SecKillAdmissionInterceptor(secKillAdmission)).addPathPatterns("/voucher-order/seckill/*").order(-1);
     }
 }
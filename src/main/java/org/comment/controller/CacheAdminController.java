@@ -0,0 +1,169 @@
+package org.comment.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.comment.dto.Result;
+import org.comment.service.IShopService;
+import org.comment.utils.CacheCompressor;
+import org.comment.utils.CacheFallbackLimiter;
+import org.comment.utils.CacheMetrics;
+import org.comment.utils.CacheRebuildExecutor;
+import org.comment.utils.CacheWarmer;
+import org.comment.utils.ClientSideCache;
+import org.comment.utils.HotKeyDetector;
+import org.comment.utils.RedisScripts;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+@RestController
+@RequestMapping("/admin/cache")
+@Tag(name = "CacheAdminController", description = "缓存管理web接口")
+public class CacheAdminController {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheFallbackLimiter cacheFallbackLimiter;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheWarmer cacheWarmer;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private CacheCompressor cacheCompressor;
+
+    @Resource
+    private ClientSideCache clientSideCache;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    /**
+     * 重建店铺布隆过滤器
+     * @return 重建结果
+     */
+    @PostMapping("/bloom/shop")
+    @Operation(summary = "重建店铺布隆过滤器")
+    public Result rebuildShopBloomFilter() {
+        shopService.rebuildBloomFilter();
+        return Result.ok();
+    }
+
+    /**
+     * 查询缓存重建线程池的运行状态
+     * @return 队列长度、重建耗时、拒绝次数等
+     */
+    @GetMapping("/rebuild/stats")
+    @Operation(summary = "查询缓存重建线程池的运行状态")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheRebuildExecutor.stats());
+    }
+
+    /**
+     * 查询每个前缀查询数据库的并发限制情况
+     * @return 剩余许可数和拒绝次数
+     */
+    @GetMapping("/fallback/stats")
+    @Operation(summary = "查询缓存回源数据库的并发限制情况")
+    public Result queryFallbackStats() {
+        return Result.ok(cacheFallbackLimiter.stats());
+    }
+
+    /**
+     * 查询本节点当前的热点key
+     * @return 热点key及其估算的QPS
+     */
+    @GetMapping("/hot-keys")
+    @Operation(summary = "查询本节点当前的热点key")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 在后台执行缓存预热，用于活动开始前
+     * @return 是否成功开始
+     */
+    @PostMapping("/warm-up")
+    @Operation(summary = "缓存预热")
+    public Result warmUp() {
+        if (!cacheWarmer.startWarmUp()) {
+            return Result.fail("缓存预热正在执行！");
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 查询缓存预热的进度
+     * @return 每张表已写入的行数和批次
+     */
+    @GetMapping("/warm-up")
+    @Operation(summary = "查询缓存预热的进度")
+    public Result queryWarmUpStatus() {
+        return Result.ok(cacheWarmer.status());
+    }
+
+    /**
+     * 查询每个key前缀的缓存指标
+     * @return 命中率、回源数据库耗时、序列化耗时、互斥锁等待时间等
+     */
+    @GetMapping("/metrics")
+    @Operation(summary = "查询缓存指标")
+    public Result queryMetrics() {
+        return Result.ok(cacheMetrics.snapshot());
+    }
+
+    /**
+     * 查询缓存数据的压缩情况
+     * @return 压缩次数、压缩前后的字节数和节省的字节数
+     */
+    @GetMapping("/compression/stats")
+    @Operation(summary = "查询缓存数据的压缩情况")
+    public Result queryCompressionStats() {
+        return Result.ok(cacheCompressor.stats());
+    }
+
+    /**
+     * 查询客户端缓存（CLIENT TRACKING）的命中情况
+     * @return 本地副本数量、命中率和失效消息数
+     */
+    @GetMapping("/client-side/stats")
+    @Operation(summary = "查询客户端缓存的命中情况")
+    public Result queryClientSideStats() {
+        return Result.ok(clientSideCache.stats());
+    }
+
+    /**
+     * 清空缓存指标，用于压测前重新统计
+     * @return 清空结果
+     */
+    @DeleteMapping("/metrics")
+    @Operation(summary = "清空缓存指标")
+    public Result resetMetrics() {
+        cacheMetrics.reset();
+        return Result.ok();
+    }
+
+    /**
+     * 查询Lua脚本的执行情况
+     * @return 每个脚本的执行次数、耗时和加载次数，以及批量执行的情况
+     */
+    @GetMapping("/scripts/stats")
+    @Operation(summary = "查询Lua脚本的执行情况")
+    public Result queryScriptStats() {
+        return Result.ok(redisScripts.stats());
+    }
+}
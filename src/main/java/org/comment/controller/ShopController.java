@@ -11,6 +11,7 @@ import org.comment.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.List;
 
 import static org.comment.utils.SystemConstants.MAX_PAGE_SIZE;
 
@@ -34,6 +35,19 @@ public class ShopController {
     }
 
 
+    /**
+     * 根据id查询商铺的部分字段
+     * @param id 商铺id
+     * @param fields 要查询的字段，为空时查询名称、图片、评分和均价
+     * @return 只包含指定字段的商铺数据
+     */
+    @GetMapping("/{id}/fields")
+    @Operation(summary = "根据id查询商铺的部分字段")
+    public Result queryShopFields(@PathVariable("id") Long id,
+                                  @RequestParam(value = "fields", required = false) List<String> fields) {
+        return shopService.queryShopFields(id, fields);
+    }
+
     /**
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
@@ -57,10 +71,8 @@ public class ShopController {
     @PostMapping
     @Operation(summary = "新增商铺信息")
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，并返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -1,7 +1,6 @@
 package org.comment.controller;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
@@ -12,9 +11,11 @@ import org.comment.entity.User;
 import org.comment.entity.UserInfo;
 import org.comment.service.IUserInfoService;
 import org.comment.service.IUserService;
+import org.comment.utils.CacheCodecs;
 import org.comment.utils.JwtTokenUtil;
 import org.comment.utils.RegexUtils;
 import org.comment.utils.UserHolder;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.bind.annotation.*;
 
@@ -26,8 +27,6 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.comment.utils.RedisConstants.*;
@@ -47,6 +46,12 @@ public class UserController {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private CacheCodecs cacheCodecs;
+
     private final ArrayList<String> tokenList = new ArrayList<>();
 
     /**
@@ -136,15 +141,9 @@ public class UserController {
 
         // tokenList.add(token);
 
-        // 4.2 将userDTO转为Map对象存入redis
-        Map<String, Object> map = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create().
-                        setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString()));
-        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_KEY + user.getId(), map);
-
-        // 4.3 设置token的有效期（30分钟）
-        stringRedisTemplate.expire(LOGIN_USER_KEY + token, LOGIN_USER_TTL, TimeUnit.SECONDS);
+        // 4.2 将userDTO序列化后存入redis（覆盖旧版本的Hash结构），并设置token的有效期（30分钟）
+        byteRedisTemplate.opsForValue().set(LOGIN_USER_KEY + user.getId(), cacheCodecs.encode(userDTO),
+                LOGIN_USER_TTL, TimeUnit.SECONDS);
 
         // 5.返回token
         return Result.ok(token);
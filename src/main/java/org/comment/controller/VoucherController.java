@@ -39,4 +39,29 @@ public class VoucherController {
         voucherService.addSecKillVoucher(voucher);
         return Result.ok(voucher.getId());
     }
+
+    /**
+     * 补充秒杀券库存
+     * @param voucherId 秒杀券id
+     * @param count 补充的数量
+     * @return 补充结果
+     */
+    @PutMapping("/secKill/{id}/stock")
+    @Operation(summary = "补充秒杀券库存")
+    public Result addSecKillStock(@PathVariable("id") Long voucherId, @RequestParam("count") Integer count) {
+        return voucherService.addSecKillStock(voucherId, count);
+    }
+
+    /**
+     * 秒杀券库存对账，汇总分段库存并与数据库对比
+     * @param voucherId 秒杀券id
+     * @param rebalance 是否把剩余库存重新平均分配到每个段
+     * @return 对账结果
+     */
+    @PostMapping("/secKill/{id}/reconcile")
+    @Operation(summary = "秒杀券库存对账")
+    public Result reconcileSecKillStock(@PathVariable("id") Long voucherId,
+                                        @RequestParam(value = "rebalance", defaultValue = "false") boolean rebalance) {
+        return voucherService.reconcileSecKillStock(voucherId, rebalance);
+    }
 }
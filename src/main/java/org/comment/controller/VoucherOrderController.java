@@ -4,6 +4,10 @@ import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.comment.dto.Result;
 import org.comment.service.IVoucherOrderService;
+import org.comment.service.impl.BlockingQueueAsynchronousVoucherOrderServiceImpl;
+import org.comment.service.impl.StreamAsynchronousVoucherOrderServiceImpl;
+import org.comment.utils.SecKillAdmission;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -19,6 +23,15 @@ public class VoucherOrderController {
     @Resource(name = "BlockingQueueAsynchronousVoucherOrderServiceImpl")
     private IVoucherOrderService voucherOrderService;
 
+    @Resource(name = "BlockingQueueAsynchronousVoucherOrderServiceImpl")
+    private BlockingQueueAsynchronousVoucherOrderServiceImpl blockingQueueVoucherOrderService;
+
+    @Resource(name = "StreamAsynchronousVoucherOrderServiceImpl")
+    private StreamAsynchronousVoucherOrderServiceImpl streamVoucherOrderService;
+
+    @Resource
+    private SecKillAdmission secKillAdmission;
+
     /**
      * 新增秒杀券订单
      * @param voucherId 秒杀券id
@@ -29,4 +42,34 @@ public class VoucherOrderController {
     public Result secKillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.secKillVoucher(voucherId);
     }
+
+    /**
+     * 查询Stream模式订单消费者的吞吐量
+     * @return 消费者数量、读取/确认/失败的消息数和平均吞吐量
+     */
+    @GetMapping("/stream/stats")
+    @Operation(summary = "查询Stream订单消费者统计")
+    public Result streamStats() {
+        return Result.ok(streamVoucherOrderService.streamStats());
+    }
+
+    /**
+     * 查询阻塞队列模式订单队列的占用情况
+     * @return 容量、占用率、拒绝数和归还库存的订单数
+     */
+    @GetMapping("/queue/stats")
+    @Operation(summary = "查询订单队列统计")
+    public Result queueStats() {
+        return Result.ok(blockingQueueVoucherOrderService.queueStats());
+    }
+
+    /**
+     * 查询秒杀请求准入控制的统计
+     * @return 每个优惠券的放行数和拒绝数
+     */
+    @GetMapping("/admission/stats")
+    @Operation(summary = "查询秒杀准入控制统计")
+    public Result admissionStats() {
+        return Result.ok(secKillAdmission.stats());
+    }
 }
@@ -1,8 +1,12 @@
 package org.comment.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
 import org.comment.entity.VoucherOrder;
 
+import java.util.List;
+
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    int insertBatch(@Param("list") List<VoucherOrder> voucherOrders);
 }
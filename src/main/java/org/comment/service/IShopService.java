@@ -4,11 +4,19 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import org.comment.dto.Result;
 import org.comment.entity.Shop;
 
+import java.util.List;
+
 public interface IShopService extends IService<Shop> {
     Result queryShopById(Long id);
 
+    Result queryShopFields(Long id, List<String> fields);
+
     Result update(Shop shop);
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result saveShop(Shop shop);
+
+    void rebuildBloomFilter();
 }
 
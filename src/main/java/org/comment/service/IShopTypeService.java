@@ -4,6 +4,10 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import org.comment.dto.Result;
 import org.comment.entity.ShopType;
 
+import java.util.List;
+
 public interface IShopTypeService extends IService<ShopType> {
     Result queryTypeList();
+
+    void saveTypeSnapshot(List<ShopType> shopTypes);
 }
@@ -9,4 +9,8 @@ public interface IVoucherService extends IService<Voucher> {
 
     void addSecKillVoucher(Voucher voucher);
 
+    Result addSecKillStock(Long voucherId, Integer count);
+
+    Result reconcileSecKillStock(Long voucherId, boolean rebalance);
+
 }
@@ -6,30 +6,35 @@ import org.comment.dto.Result;
 import org.comment.entity.SecKillVoucher;
 import org.comment.entity.VoucherOrder;
 import org.comment.mapper.VoucherOrderMapper;
-import org.comment.service.ISecKillVoucherService;
 import org.comment.service.IVoucherOrderService;
 import org.comment.utils.RedisIdWorker;
+import org.comment.utils.RedisScripts;
+import org.comment.utils.SecKillVoucherCache;
+import org.comment.utils.SegmentedStock;
+import org.comment.utils.SoldOutMarker;
 import org.comment.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.comment.utils.VoucherOrderRingBuffer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.comment.utils.RedisScripts.SEC_KILL;
 
 /**
  * 利用阻塞队列异步秒杀优惠券
+ * 开启批量模式时，消费线程每次最多取出batch-size个订单或等待wait-millis毫秒，由VoucherOrderWriter批量写入
+ * 订单队列使用预先分配槽位的环形队列，队列满时立即拒绝请求并归还redis中扣减的库存，不会出现扣减了库存却没有订单
  */
 @Slf4j
 @Service("BlockingQueueAsynchronousVoucherOrderServiceImpl")
@@ -38,28 +43,48 @@ public class BlockingQueueAsynchronousVoucherOrderServiceImpl
         implements IVoucherOrderService {
 
     @Resource
-    private ISecKillVoucherService secKillVoucherService;
+    private RedisIdWorker redisIdWorker;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SoldOutMarker soldOutMarker;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private SecKillVoucherCache secKillVoucherCache;
 
     @Resource
-    private RedissonClient redissonClient;
+    private SegmentedStock segmentedStock;
 
-    private IVoucherOrderService proxy;
+    @Resource
+    private RedisScripts redisScripts;
 
-    private static final DefaultRedisScript<Long> SEC_KILL_SCRIPT;
-    static {
-        SEC_KILL_SCRIPT = new DefaultRedisScript<>();
-        SEC_KILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SEC_KILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    // 是否批量创建订单
+    @Value("${comment.seckill.order-batch.enabled:false}")
+    private boolean batchEnabled;
+
+    // 每批最多创建的订单数
+    @Value("${comment.seckill.order-batch.size:100}")
+    private int batchSize;
+
+    // 凑满一批最多等待的时间（毫秒）
+    @Value("${comment.seckill.order-batch.wait-millis:50}")
+    private long batchWaitMillis;
 
-    // 阻塞队列
-    private final BlockingQueue<VoucherOrder> voucherOrderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+    // 订单队列的容量
+    @Value("${comment.seckill.order-queue.capacity:1048576}")
+    private int queueCapacity;
+
+    // 消费线程没有订单时的等待策略：busy_spin、yielding、sleeping、blocking
+    @Value("${comment.seckill.order-queue.wait-strategy:blocking}")
+    private String queueWaitStrategy;
+
+    // 订单队列，预先分配槽位，队列满时拒绝请求并归还库存
+    private VoucherOrderRingBuffer voucherOrderTasks;
+
+    // 队列满时归还库存的订单数
+    private final LongAdder compensated = new LongAdder();
 
     // 使用异步线程执行创建订单的任务
     private final ExecutorService secKill_VoucherOrder_Executor = Executors.newSingleThreadExecutor();
@@ -70,49 +95,61 @@ public class BlockingQueueAsynchronousVoucherOrderServiceImpl
         public void run() {
             while (true) {
                 try {
-                    // 1.从阻塞队列中取出优惠券信息
+                    // 1.从订单队列中取出优惠券信息
                     VoucherOrder voucherOrder = voucherOrderTasks.take();
 
-                    // 2.创建订单
-                    handlerVoucherOrder(voucherOrder);
+                    // 2.创建订单，批量写入失败时逐个写入
+                    if (batchEnabled) {
+                        voucherOrderWriter.write(drain(voucherOrder));
+                    } else {
+                        voucherOrderWriter.writeOne(voucherOrder);
+                    }
                 } catch (Exception e) {
                     log.error("创建订单异常！", e);
                 }
             }
         }
 
-        private void handlerVoucherOrder(VoucherOrder voucherOrder) {
-            Long userId = voucherOrder.getUserId();
-
-            // 利用redisson实现分布式锁
-            RLock rLock = redissonClient.getLock("lock:voucherOrder" + userId);
-            boolean isLock = rLock.tryLock();
-            if (!isLock) {
-                log.error("获取锁失败！");
-                return;
-            }
-
-            try {
-                // 创建订单
-                proxy.createVoucherOrder(voucherOrder);
-            } finally {
-                // 释放锁
-                rLock.unlock();
+        // 从订单队列中继续取出订单，直到凑满一批或超过等待时间
+        private List<VoucherOrder> drain(VoucherOrder first) throws InterruptedException {
+            List<VoucherOrder> voucherOrders = new ArrayList<>(batchSize);
+            voucherOrders.add(first);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWaitMillis);
+            while (voucherOrders.size() < batchSize) {
+                if (voucherOrderTasks.drainTo(voucherOrders, batchSize - voucherOrders.size()) > 0) {
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                VoucherOrder voucherOrder = voucherOrderTasks.poll(remaining, TimeUnit.NANOSECONDS);
+                if (voucherOrder == null) {
+                    break;
+                }
+                voucherOrders.add(voucherOrder);
             }
+            return voucherOrders;
         }
     }
 
-    // 类初始化完成后就执行此方法，等待阻塞队列中的订单信息
+    // 类初始化完成后就执行此方法，等待订单队列中的订单信息
     @PostConstruct
     public void init() {
+        voucherOrderTasks = new VoucherOrderRingBuffer(queueCapacity,
+                VoucherOrderRingBuffer.WaitStrategy.valueOf(queueWaitStrategy.toUpperCase()));
         secKill_VoucherOrder_Executor.submit(new VoucherHandler());
     }
 
     @Override
     public Result secKillVoucher(Long voucherId) {
+        // 已售罄，直接拒绝，不访问redis和数据库
+        if (soldOutMarker.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
 
-        // 1.查询优惠券信息
-        SecKillVoucher secKillVoucher = secKillVoucherService.getById(voucherId);
+        // 1.查询优惠券信息，只访问进程内缓存
+        SecKillVoucher secKillVoucher = secKillVoucherCache.get(voucherId);
         if (secKillVoucher == null) {
             return Result.fail("优惠券不存在！");
         }
@@ -128,58 +165,69 @@ public class BlockingQueueAsynchronousVoucherOrderServiceImpl
         // 3.获取用户ID
         Long userId = UserHolder.getUser().getId();
 
-        // 4.执行Lua脚本，判断库存是否充足，用户是否已经购买过该优惠券
-        Long result = stringRedisTemplate.execute(SEC_KILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString());
+        // 4.执行Lua脚本，判断库存是否充足，用户是否已经购买过该优惠券，分段的秒杀券只访问用户所在的段
+        // 先创建订单id，创建失败时还没有扣减库存，不需要归还
+        long voucherOrderId = redisIdWorker.nextId("voucherOrder");
+        Long result;
+        try {
+            result = segmentedStock.isSegmented(voucherId)
+                    ? segmentedStock.secKill(voucherId, userId)
+                    : redisScripts.executeBatched(SEC_KILL, Collections.emptyList(), voucherId, userId);
+        } catch (Exception e) {
+            // 等待结果超时或连接异常时脚本可能已经执行，归还库存后拒绝请求；只有删除了用户的下单记录才会归还库存
+            log.error("执行秒杀脚本失败！voucherId = {}, userId = {}", voucherId, userId, e);
+            compensate(voucherId, userId);
+            return Result.fail("系统繁忙，请稍后重试");
+        }
 
+        if (result != null && result == 1) {
+            // 库存不足，通知所有节点标记售罄
+            soldOutMarker.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
         if (result != null && result != 0) {
-            return Result.fail(result == 1 ? "库存不足" : "该用户已经购买过此优惠券");
+            return Result.fail("该用户已经购买过此优惠券");
         }
 
-        // 5.将订单信息保存至阻塞队列，由异步线程线程从阻塞队列取出订单信息创建订单
-        VoucherOrder voucherOrder = new VoucherOrder();
-        long voucherOrderId = redisIdWorker.nextId("voucherOrder");
-        voucherOrder.setId(voucherOrderId);
-        voucherOrder.setUserId(userId);
-        voucherOrder.setVoucherId(voucherId);
-        voucherOrderTasks.add(voucherOrder);
-
-        // 6.获取代理对象，控制事务
-        if (proxy == null) {
-            proxy = (IVoucherOrderService) AopContext.currentProxy();
+        // 5.将订单信息保存至订单队列，由异步线程从队列取出订单信息创建订单
+        if (!voucherOrderTasks.offer(voucherOrderId, userId, voucherId)) {
+            // 队列已满，库存已经扣减，归还库存后拒绝请求
+            compensate(voucherId, userId);
+            return Result.fail("系统繁忙，请稍后重试");
         }
         return Result.ok(voucherOrderId);
     }
 
+    // 归还秒杀脚本扣减的库存和用户的下单记录，失败时只记录日志，由库存对账发现
+    private void compensate(Long voucherId, Long userId) {
+        try {
+            if (segmentedStock.isSegmented(voucherId)) {
+                segmentedStock.rollback(voucherId, userId);
+            } else {
+                redisScripts.execute(RedisScripts.SEC_KILL_ROLLBACK, Collections.emptyList(), voucherId, userId);
+            }
+            compensated.increment();
+        } catch (Exception e) {
+            log.error("归还库存失败！voucherId = {}, userId = {}", voucherId, userId, e);
+        }
+    }
+
+    /**
+     * @return 订单队列的容量、占用率、拒绝数和归还库存的订单数
+     */
+    public Map<String, Object> queueStats() {
+        Map<String, Object> stats = voucherOrderTasks.stats();
+        stats.put("compensated", compensated.sum());
+        return stats;
+    }
+
     @Override
     public Result createVoucherOrder(Long voucherId) {
         return null;
     }
 
     @Override
-    @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-
-        // 1.一人一单
-        Long count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        if (count == 1) {
-            // 用户已经购买过该优惠券
-            log.error("该用户已经购买过此优惠券！");
-            return;
-        }
-
-        // 2.扣减库存
-        boolean result = secKillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
-                .update();
-        if (!result) {
-            log.error("库存不足！");
-        }
-
-        // 3.创建订单
-        save(voucherOrder);
+        voucherOrderWriter.writeOne(voucherOrder);
     }
 }
@@ -2,7 +2,6 @@ package org.comment.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.extern.slf4j.Slf4j;
@@ -11,23 +10,27 @@ import org.comment.dto.ScrollResult;
 import org.comment.dto.UserDTO;
 import org.comment.entity.Blog;
 import org.comment.entity.Follow;
-import org.comment.entity.User;
 import org.comment.mapper.BlogMapper;
 import org.comment.service.IBlogService;
 import org.comment.service.IFollowService;
 import org.comment.service.IUserService;
+import org.comment.utils.CacheClient;
+import org.comment.utils.CacheMetrics;
+import org.comment.utils.HotKeyDetector;
 import org.comment.utils.SystemConstants;
 import org.comment.utils.UserHolder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
-import static org.comment.utils.RedisConstants.BLOG_LIKED_KEY;
-import static org.comment.utils.RedisConstants.FEED_KEY;
+import static org.comment.utils.RedisConstants.*;
 
 @Slf4j
 @Service
@@ -42,6 +45,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -52,11 +64,9 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 获取当前页数据
         List<Blog> records = page.getRecords();
 
-        // 查询用户
-        records.forEach(blog -> {
-            queryBlogUser(blog);
-            blog.setIsLike(isBlogLiked(blog.getId()));
-        });
+        // 批量查询用户和点赞状态
+        fillBlogUser(records);
+        fillBlogLiked(records);
 
         return Result.ok(records);
     }
@@ -71,7 +81,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
 
         // 2.查询用户信息
-        queryBlogUser(blog);
+        fillBlogUser(Collections.singletonList(blog));
 
         // 3.查看该用户是否给该博客点赞
         blog.setIsLike(isBlogLiked(blog.getId()));
@@ -84,42 +94,43 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         Long userId = UserHolder.getUser().getId();
 
         // 2.判断当前用户是否已经点赞
+        // 直接查询redis，不能使用热点key的本地副本，否则连续点击时会读到旧的点赞状态
         String key = BLOG_LIKED_KEY + id;
-        if (isBlogLiked(id)) {
+        if (stringRedisTemplate.opsForZSet().score(key, userId.toString()) != null) {
             // 已经点赞，取消点赞
             boolean isSuccess = update().setSql("liked = liked - 1").eq("id", id).update();
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().remove(key, userId.toString());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         } else {
             // 未点赞，点赞数+1
             boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
             if (isSuccess) {
                 stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         }
+        // 删除本节点的本地副本
+        hotKeyDetector.invalidate(key + ":" + userId);
+        hotKeyDetector.invalidate(key + ":top5");
         return Result.ok();
     }
 
     @Override
     public Result queryBlogLikes(Long id) {
         // 1.查询top5的点赞用户（按时间排序）zrange k 0 4
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(BLOG_LIKED_KEY + id, 0, 4);
+        String key = BLOG_LIKED_KEY + id;
+        Set<String> top5 = hotKeyDetector.read(key, key + ":top5", () -> stringRedisTemplate.opsForZSet().range(key, 0, 4));
         if (top5 == null || top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
 
-        // 2.查询用户信息
+        // 2.批量查询用户信息，保持点赞时间的顺序
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
+        Map<Long, UserDTO> userMap = cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class, this::queryUserMap, CACHE_USER_TTL, TimeUnit.MINUTES);
 
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id, " + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
-
-        return Result.ok(userDTOS);
+        return Result.ok(new ArrayList<>(userMap.values()));
     }
 
     @Override
@@ -158,8 +169,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
                 .reverseRangeByScoreWithScores(FEED_KEY + userId, 0, max, offset, 2);
         if (typedTuples == null || typedTuples.isEmpty()) {
+            cacheMetrics.of(FEED_KEY).miss();
             return Result.ok();
         }
+        cacheMetrics.of(FEED_KEY).hit();
 
         // 3.解析数据：blogId、minTime、offset
         List<Long> ids = new ArrayList<>();
@@ -180,13 +193,15 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         log.info("os = {}", os);
 
-        // 4、根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id, " + idStr + ")").list();
-        blogs.forEach(blog -> {
-            blog.setIsLike(isBlogLiked(blog.getId()));
-            queryBlogUser(blog);
-        });
+        // 4、根据id批量查询blog，优先从缓存中获取
+        Map<Long, Blog> blogMap = cacheClient.queryBatch(CACHE_BLOG_KEY, ids, Blog.class, this::queryBlogMap, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = new ArrayList<>(blogMap.size());
+        for (Blog blog : blogMap.values()) {
+            // 缓存中的对象可能被多个请求共享，复制后再设置作者信息和点赞状态
+            blogs.add(BeanUtil.copyProperties(blog, Blog.class));
+        }
+        fillBlogUser(blogs);
+        fillBlogLiked(blogs);
 
         // 5、封装并返回数据
         ScrollResult scrollResult = new ScrollResult();
@@ -199,17 +214,76 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private boolean isBlogLiked(Long id) {
         UserDTO userDTO = UserHolder.getUser();
         if (userDTO != null) {
-            Double score = stringRedisTemplate.opsForZSet().score(BLOG_LIKED_KEY + id, userDTO.getId().toString());
-            return BooleanUtil.isTrue(score != null);
+            String key = BLOG_LIKED_KEY + id;
+            String userId = userDTO.getId().toString();
+            // 热点博客优先使用本地副本
+            Boolean isLiked = hotKeyDetector.read(key, key + ":" + userId,
+                    () -> stringRedisTemplate.opsForZSet().score(key, userId) != null);
+            return BooleanUtil.isTrue(isLiked);
         }
         else
             return false;
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    // 通过pipeline批量查询当前用户是否给这些博客点赞
+    private void fillBlogLiked(List<Blog> blogs) {
+        UserDTO userDTO = UserHolder.getUser();
+        if (userDTO == null || blogs.isEmpty()) {
+            blogs.forEach(blog -> blog.setIsLike(false));
+            return;
+        }
+        String userId = userDTO.getId().toString();
+        // 热点博客优先使用本地副本，其余的通过pipeline查询
+        List<Blog> misses = new ArrayList<>(blogs.size());
+        for (Blog blog : blogs) {
+            String key = BLOG_LIKED_KEY + blog.getId();
+            Boolean isLiked = hotKeyDetector.get(key, key + ":" + userId);
+            if (isLiked != null) {
+                blog.setIsLike(isLiked);
+            } else {
+                misses.add(blog);
+            }
+        }
+        if (misses.isEmpty()) {
+            return;
+        }
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+            misses.forEach(blog -> stringRedisConnection.zScore(BLOG_LIKED_KEY + blog.getId(), userId));
+            return null;
+        });
+        for (int i = 0; i < misses.size(); i++) {
+            Blog blog = misses.get(i);
+            String key = BLOG_LIKED_KEY + blog.getId();
+            blog.setIsLike(scores.get(i) != null);
+            hotKeyDetector.put(key, key + ":" + userId, blog.getIsLike());
+        }
+    }
+
+    // 批量查询博客作者的信息
+    private void fillBlogUser(List<Blog> blogs) {
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> userMap = cacheClient.queryBatch(CACHE_USER_KEY, userIds, UserDTO.class, this::queryUserMap, CACHE_USER_TTL, TimeUnit.MINUTES);
+        for (Blog blog : blogs) {
+            UserDTO userDTO = userMap.get(blog.getUserId());
+            if (userDTO != null) {
+                blog.setName(userDTO.getNickName());
+                blog.setIcon(userDTO.getIcon());
+            }
+        }
+    }
+
+    // 根据id集合批量查询用户
+    private Map<Long, UserDTO> queryUserMap(Collection<Long> ids) {
+        Map<Long, UserDTO> userMap = new HashMap<>(ids.size());
+        userService.listByIds(ids).forEach(user -> userMap.put(user.getId(), BeanUtil.copyProperties(user, UserDTO.class)));
+        return userMap;
+    }
+
+    // 根据id集合批量查询博客
+    private Map<Long, Blog> queryBlogMap(Collection<Long> ids) {
+        Map<Long, Blog> blogMap = new HashMap<>(ids.size());
+        listByIds(ids).forEach(blog -> blogMap.put(blog.getId(), blog));
+        return blogMap;
     }
 }
@@ -1,5 +1,6 @@
 package org.comment.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -11,8 +12,12 @@ import org.comment.dto.Result;
 import org.comment.entity.Shop;
 import org.comment.mapper.ShopMapper;
 import org.comment.service.IShopService;
+import org.comment.utils.CacheBloomFilters;
 import org.comment.utils.CacheClient;
+import org.comment.utils.CacheRebuildExecutor;
+import org.comment.utils.CacheTtlPolicy;
 import org.comment.utils.RedisData;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -21,13 +26,13 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static org.comment.utils.RedisConstants.*;
@@ -43,10 +48,80 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private CacheBloomFilters cacheBloomFilters;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheTtlPolicy cacheTtlPolicy;
+
+    @Resource
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    // 重建布隆过滤器时每批读取的店铺id数量
+    private static final int BLOOM_FILTER_BATCH_SIZE = 1000;
+
+    // 未指定字段时查询列表展示需要的字段
+    private static final List<String> DEFAULT_SHOP_FIELDS = Arrays.asList("id", "name", "images", "score", "avgPrice");
+
+    // 可以查询的字段
+    private static final Set<String> SHOP_FIELDS = BeanUtil.getBeanDesc(Shop.class).getPropMap(false).keySet();
+
+    // 启动时根据tb_shop中的id构建布隆过滤器，之后定期重建
+    @PostConstruct
+    public void initBloomFilter() {
+        // hash结构的店铺缓存使用同一个布隆过滤器
+        cacheBloomFilters.alias(CACHE_SHOP_HASH_KEY, CACHE_SHOP_KEY);
+        try {
+            rebuildBloomFilter();
+        } catch (Exception e) {
+            // 构建失败时不拦截任何id，退化为缓存空值的方式
+            log.error("店铺布隆过滤器构建失败！", e);
+        }
+        cacheBloomFilters.scheduleRebuild(CACHE_SHOP_KEY, this::rebuildBloomFilter);
+    }
+
+    @Override
+    public void rebuildBloomFilter() {
+        cacheBloomFilters.rebuild(CACHE_SHOP_KEY, count(), consumer -> {
+            // 按id分批读取，避免一次性加载全部店铺
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = query().select("id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + BLOOM_FILTER_BATCH_SIZE)
+                        .list();
+                if (shops.isEmpty()) {
+                    break;
+                }
+                shops.forEach(shop -> consumer.accept(shop.getId()));
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+        });
+    }
+
+    @Override
+    public Result saveShop(Shop shop) {
+        // 1.写入数据库
+        boolean result = save(shop);
+        if (!result) {
+            log.error("新增店铺失败！");
+            return Result.fail("新增店铺失败！");
+        }
+
+        // 2.将店铺id加入布隆过滤器
+        cacheBloomFilters.put(CACHE_SHOP_KEY, shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     @Override
     public Result queryShopById(Long id) {
         // Shop shop = queryWithPassThrough(id);
-        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        // Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        Shop shop = cacheClient.queryWithRefreshAhead(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         // Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         // Shop shop = cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
@@ -55,6 +130,26 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result queryShopFields(Long id, List<String> fields) {
+        // 1.校验字段
+        if (fields == null || fields.isEmpty()) {
+            fields = DEFAULT_SHOP_FIELDS;
+        }
+        for (String field : fields) {
+            if (!SHOP_FIELDS.contains(field)) {
+                return Result.fail("不存在的字段：" + field);
+            }
+        }
+
+        // 2.从hash结构的缓存中只查询指定字段，布隆过滤器判断一定不存在的id直接返回null
+        Shop shop = cacheClient.queryFields(CACHE_SHOP_HASH_KEY, id, Shop.class, fields, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
+            return Result.fail("店铺信息不存在");
+        }
+        return Result.ok(shop);
+    }
+
     // 向缓存中存入空值解决缓存穿透
     private Shop queryWithPassThrough(Long id) {
         // 1.从redis中查询商铺缓存
@@ -143,9 +238,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
-    // 缓存重建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
     // 利用逻辑过期解决缓存击穿
     private Shop queryWithLogicalExpire(Long id) {
         // 1.从redis中查询商铺缓存
@@ -181,13 +273,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
         if (lock) {
             // 成功获取互斥锁
-            // 3.3 开启独立线程更新缓存数据
-            try {
-                CACHE_REBUILD_EXECUTOR.submit(() -> this.saveShop(id, 20L));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                // 释放锁
+            // 3.3 开启独立线程更新缓存数据，重建完成后才释放锁
+            boolean submitted = cacheRebuildExecutor.submit(CACHE_SHOP_KEY + id, () -> {
+                try {
+                    this.saveShop(id, 20L);
+                } finally {
+                    unLock(lockKey);
+                }
+            });
+            if (!submitted) {
                 unLock(lockKey);
             }
         }
@@ -211,10 +305,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         // 1.查询店铺数据
         Shop shop = getById(id);
 
-        // 2.封装逻辑过期时间
+        // 2.封装逻辑过期时间，按前缀策略增加偏移量，避免批量预热的店铺同时过期
         RedisData redisData = new RedisData();
         redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(
+                cacheTtlPolicy.seconds(CACHE_SHOP_KEY + id, expireSeconds, TimeUnit.SECONDS)));
 
         // 3.写入redis
         stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
@@ -230,11 +325,23 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("店铺信息更新失败！");
         }
 
-        // 2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // 2.删除缓存，并通知所有节点删除一级缓存
+        cacheClient.delete(CACHE_SHOP_KEY + shop.getId());
+
+        // 3.事务提交后hash结构的缓存只更新变化的字段
+        applicationEventPublisher.publishEvent(shop);
         return Result.ok();
     }
 
+    /**
+     * 店铺信息更新的事务提交后只更新hash结构缓存中变化的字段，事务回滚时缓存不会出现数据库中不存在的值
+     * @param shop 变化的字段
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onShopUpdated(Shop shop) {
+        cacheClient.patchFields(CACHE_SHOP_HASH_KEY + shop.getId(), shop);
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         // 1.判断是否需要根据坐标查询
@@ -278,14 +385,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             distanceMap.put(shopIdStr, distance);
         });
 
-        // 5.根据id查询Shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        // 5.根据id批量查询Shop，优先从缓存中获取
+        Map<Long, Shop> shopMap = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, this::queryShopMap, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(shopMap.size());
+        for (Shop shop : shopMap.values()) {
+            // 缓存中的对象可能被多个请求共享，复制后再设置距离
+            Shop copy = BeanUtil.copyProperties(shop, Shop.class);
+            copy.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shops.add(copy);
         }
 
         // 6.返回数据
         return Result.ok(shops);
     }
+
+    // 根据id集合批量查询店铺
+    private Map<Long, Shop> queryShopMap(Collection<Long> ids) {
+        Map<Long, Shop> shopMap = new HashMap<>(ids.size());
+        listByIds(ids).forEach(shop -> shopMap.put(shop.getId(), shop));
+        return shopMap;
+    }
 }
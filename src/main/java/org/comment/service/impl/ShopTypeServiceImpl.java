@@ -1,52 +1,190 @@
 package org.comment.service.impl;
 
-import cn.hutool.core.util.ObjectUtil;
-import cn.hutool.json.JSONUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
 import org.comment.dto.Result;
 import org.comment.entity.ShopType;
 import org.comment.mapper.ShopTypeMapper;
 import org.comment.service.IShopTypeService;
+import org.comment.utils.CacheCodecs;
+import org.comment.utils.CacheMetrics;
+import org.comment.utils.ClientSideCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.comment.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static org.comment.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
 
+/**
+ * 店铺类型
+ * 所有店铺类型序列化为一个快照存入redis，快照和版本号在同一个事务中更新（先写临时key，再RENAME为快照key并递增版本号），
+ * 各节点在本地保存不可变的快照，最多每隔check-interval毫秒比较一次版本号，版本号变化时才重新读取快照
+ * 注意：快照中的对象由所有请求共享，不能修改
+ */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private CacheCodecs cacheCodecs;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private ClientSideCache clientSideCache;
+
+    // 比较版本号的最小间隔（毫秒）
+    @Value("${comment.cache.shop-type.check-interval:1000}")
+    private long checkInterval;
+
+    // 本地快照
+    private volatile Snapshot snapshot;
+
+    // 上一次比较版本号的时间
+    private volatile long lastCheckMillis;
+
+    // 同一时刻只有一个线程比较版本号，其余线程直接使用本地快照
+    private final AtomicBoolean checking = new AtomicBoolean();
+
     @Override
     public Result queryTypeList() {
-        // 1.从redis中查询店铺类型信息
-        List<String> shopTypeList = stringRedisTemplate.opsForList().range(CACHE_SHOP_TYPE_KEY, 0, -1);
-        List<ShopType> shopTypes;
-
-        // 2.redis中存在店铺类型数据，返回数据
-        if (ObjectUtil.isNotEmpty(shopTypeList)){
-            shopTypes = shopTypeList.stream().map(shopType -> JSONUtil.toBean(shopType, ShopType.class)).collect(Collectors.toList());
-            return Result.ok(shopTypes);
+        Snapshot current = snapshot;
+
+        // 1.本地快照不存在，加载快照
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = loadSnapshot(null);
+                    lastCheckMillis = System.currentTimeMillis();
+                }
+                return Result.ok(snapshot.shopTypes);
+            }
         }
 
-        // 3.redis中不存在店铺类型数据，查询数据库
-        shopTypes = query().orderByAsc("sort").list();
+        // 2.距离上一次比较版本号超过间隔，比较版本号，版本号变化时重新加载快照
+        long now = System.currentTimeMillis();
+        if (now - lastCheckMillis >= checkInterval && checking.compareAndSet(false, true)) {
+            try {
+                current = loadSnapshot(current);
+                snapshot = current;
+                lastCheckMillis = now;
+            } catch (DataAccessException e) {
+                // redis不可用时继续使用本地快照
+                log.warn("检查店铺类型快照的版本号失败", e);
+            } finally {
+                checking.set(false);
+            }
+        }
 
-        // 4.判断数据库中是否存在店铺类型数据
-        if (shopTypes == null) {
-            // 数据库中不存在
-            return Result.fail("店铺类型信息不存在！");
+        // 3.返回本地快照
+        return Result.ok(current.shopTypes);
+    }
+
+    /**
+     * 将店铺类型写入redis快照，并递增版本号
+     * @param shopTypes 按sort排序的店铺类型
+     */
+    @Override
+    public void saveTypeSnapshot(List<ShopType> shopTypes) {
+        snapshot = new Snapshot(publish(shopTypes), shopTypes);
+    }
+
+    // 版本号与本地快照相同时直接返回本地快照，否则读取redis中的快照，redis中不存在时查询数据库
+    private Snapshot loadSnapshot(Snapshot current) {
+        // 1.查询版本号，开启客户端缓存时版本号没有变化就不需要访问redis
+        String version = readVersion();
+        if (current != null && StrUtil.equals(version, String.valueOf(current.version))) {
+            cacheMetrics.of(CACHE_SHOP_TYPE_KEY).nearHit();
+            return current;
+        }
+
+        // 2.版本号变化，在同一个事务中读取版本号和快照，保证两者一致
+        if (version != null) {
+            List<Object> results = byteRedisTemplate.execute(new SessionCallback<List<Object>>() {
+                @Override
+                public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    operations.multi();
+                    operations.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
+                    operations.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+                    return operations.exec();
+                }
+            });
+            if (results != null && results.size() == 2 && results.get(0) != null) {
+                long begin = System.nanoTime();
+                List<ShopType> shopTypes = cacheCodecs.decodeList((byte[]) results.get(1), ShopType.class);
+                cacheMetrics.of(CACHE_SHOP_TYPE_KEY).serialization().recordSince(begin);
+                if (shopTypes != null) {
+                    cacheMetrics.of(CACHE_SHOP_TYPE_KEY).hit();
+                    long loaded = Long.parseLong(new String((byte[]) results.get(0), StandardCharsets.UTF_8));
+                    return new Snapshot(loaded, shopTypes);
+                }
+            }
+        }
+
+        // 3.redis中不存在或无法识别，查询数据库并写入新的快照
+        cacheMetrics.of(CACHE_SHOP_TYPE_KEY).miss();
+        long begin = System.nanoTime();
+        List<ShopType> shopTypes = query().orderByAsc("sort").list();
+        cacheMetrics.of(CACHE_SHOP_TYPE_KEY).dbFallback().recordSince(begin);
+        return new Snapshot(publish(shopTypes), shopTypes);
+    }
+
+    private String readVersion() {
+        if (!clientSideCache.supports(CACHE_SHOP_TYPE_VERSION_KEY)) {
+            return stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_VERSION_KEY);
         }
+        byte[] version = clientSideCache.get(CACHE_SHOP_TYPE_VERSION_KEY);
+        return version == null ? null : new String(version, StandardCharsets.UTF_8);
+    }
 
-        // 5.将店铺类型数据写入redis
-        shopTypes.forEach(shopType -> stringRedisTemplate.opsForList().rightPush(CACHE_SHOP_TYPE_KEY, JSONUtil.toJsonStr(shopType)));
+    // 先写入临时key，再在事务中RENAME为快照key并递增版本号，读取方不会读到一半的数据
+    private long publish(List<ShopType> shopTypes) {
+        String tmpKey = CACHE_SHOP_TYPE_KEY + ":tmp:" + UUID.randomUUID();
+        byteRedisTemplate.opsForValue().set(tmpKey, cacheCodecs.encodeList(shopTypes));
+        List<Object> results = byteRedisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                operations.multi();
+                operations.rename((K) tmpKey, (K) CACHE_SHOP_TYPE_KEY);
+                operations.opsForValue().increment((K) CACHE_SHOP_TYPE_VERSION_KEY);
+                return operations.exec();
+            }
+        });
+        long version = ((Number) results.get(results.size() - 1)).longValue();
+        log.info("店铺类型快照已更新，version = {}，size = {}", version, shopTypes.size());
+        return version;
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final List<ShopType> shopTypes;
 
-        return Result.ok(shopTypes);
+        private Snapshot(long version, List<ShopType> shopTypes) {
+            this.version = version;
+            this.shopTypes = Collections.unmodifiableList(new ArrayList<>(shopTypes));
+        }
     }
 }
@@ -1,41 +1,53 @@
 package org.comment.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.extern.slf4j.Slf4j;
 import org.comment.dto.Result;
 import org.comment.entity.SecKillVoucher;
 import org.comment.entity.VoucherOrder;
 import org.comment.mapper.VoucherOrderMapper;
-import org.comment.service.ISecKillVoucherService;
 import org.comment.service.IVoucherOrderService;
 import org.comment.utils.RedisIdWorker;
+import org.comment.utils.RedisScripts;
+import org.comment.utils.SecKillVoucherCache;
+import org.comment.utils.SegmentedStock;
+import org.comment.utils.SoldOutMarker;
 import org.comment.utils.UserHolder;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.comment.utils.RedisConstants.SEC_KILL_ORDER_DEAD_LETTER_KEY;
+import static org.comment.utils.RedisConstants.SEC_KILL_ORDER_GROUP;
+import static org.comment.utils.RedisConstants.SEC_KILL_ORDER_STREAM_KEY;
+import static org.comment.utils.RedisScripts.SEC_KILL_BY_STREAM;
 
 /**
  * 利用Redis中的Stream数据结构异步秒杀优惠券
+ * 每个节点启动consumers个消费者，每次XREADGROUP最多读取batch-size条消息，在一个事务中批量创建订单后一次XACK整批消息；
+ * 批量写入失败时逐个创建订单，只确认成功的消息，失败的消息留在pending-list中；
+ * 消费者每隔pending.check-millis检查整个消费者组的pending-list，空闲超过pending.idle-millis的消息（包括已经下线的消费者的消息）
+ * 通过XCLAIM转移给自己重新处理，投递次数达到pending.max-deliveries的消息转入死信队列stream.voucherOrders.dlq，不再重试
  */
 @Slf4j
 @Service("StreamAsynchronousVoucherOrderServiceImpl")
@@ -43,42 +55,109 @@ public class StreamAsynchronousVoucherOrderServiceImpl
         extends ServiceImpl<VoucherOrderMapper, VoucherOrder>
         implements IVoucherOrderService {
 
-    @Resource
-    private ISecKillVoucherService secKillVoucherService;
-
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private RedisIdWorker redisIdWorker;
 
-    private IVoucherOrderService proxy;
+    @Resource
+    private SoldOutMarker soldOutMarker;
 
-    private static final DefaultRedisScript<Long> SEC_KILL_SCRIPT;
-    static {
-        SEC_KILL_SCRIPT = new DefaultRedisScript<>();
-        SEC_KILL_SCRIPT.setLocation(new ClassPathResource("seckillByStream.lua"));
-        SEC_KILL_SCRIPT.setResultType(Long.class);
-    }
+    @Resource
+    private SecKillVoucherCache secKillVoucherCache;
+
+    @Resource
+    private SegmentedStock segmentedStock;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    @Value("${comment.seckill.stream.enabled:false}")
+    private boolean enabled;
+
+    // 每个节点的消费者数量
+    @Value("${comment.seckill.stream.consumers:4}")
+    private int consumers;
+
+    // 每次XREADGROUP最多读取的消息数，同时也是批量写入数据库的大小
+    @Value("${comment.seckill.stream.batch-size:100}")
+    private int batchSize;
+
+    @Value("${comment.seckill.stream.block-millis:2000}")
+    private long blockMillis;
+
+    // 消费者名称前缀，同一个消费者组中每个实例必须不同；为空时使用主机名:端口，重启后仍能处理自己的pending-list
+    @Value("${comment.seckill.stream.consumer-prefix:}")
+    private String consumerPrefix;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    // 检查消费者组pending-list的间隔（毫秒）
+    @Value("${comment.seckill.stream.pending.check-millis:5000}")
+    private long pendingCheckMillis;
+
+    // pending-list中的消息空闲超过该时间（毫秒）才重新处理，避免与正在处理的消费者重复
+    @Value("${comment.seckill.stream.pending.idle-millis:10000}")
+    private long pendingIdleMillis;
+
+    // 投递次数达到该值的消息转入死信队列
+    @Value("${comment.seckill.stream.pending.max-deliveries:5}")
+    private long maxDeliveries;
+
+    // 使用异步线程执行创建订单的任务，每个线程是消费者组中的一个消费者
+    private ExecutorService secKill_VoucherOrder_Executor;
 
-    // 使用异步线程执行创建订单的任务
-    private final ExecutorService secKill_VoucherOrder_Executor = Executors.newSingleThreadExecutor();
+    private volatile boolean running;
+
+    // 读取的消息数
+    private final LongAdder readCount = new LongAdder();
+
+    // 确认的消息数
+    private final LongAdder ackCount = new LongAdder();
+
+    // 批量写入失败后逐个创建仍然失败、留在pending-list中的消息数
+    private final LongAdder failedCount = new LongAdder();
+
+    // 从pending-list中重新处理的消息数
+    private final LongAdder pendingCount = new LongAdder();
+
+    // 转入死信队列的消息数
+    private final LongAdder deadLetterCount = new LongAdder();
+
+    // 消费者启动时间（毫秒）
+    private long startedAt;
 
     // 使用内部类封装异步线程要执行的任务
     private class VoucherHandler implements Runnable {
 
-        private final String queueName = "stream.voucherOrders";
+        private final Consumer consumer;
+
+        private VoucherHandler(String consumerName) {
+            this.consumer = Consumer.from(SEC_KILL_ORDER_GROUP, consumerName);
+        }
+
+        // 上次检查消费者组pending-list的时间（毫秒）
+        private long lastPendingCheck = System.currentTimeMillis();
 
         @Override
         public void run() {
-            while (true) {
+            // 先处理本消费者上次退出时没有确认的消息
+            handlePendingList();
+            while (running) {
                 try {
-                    // 1.从消息队列中取出优惠券信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
+                    // 0.定期重新处理pending-list中长时间没有确认的消息
+                    if (System.currentTimeMillis() - lastPendingCheck >= pendingCheckMillis) {
+                        lastPendingCheck = System.currentTimeMillis();
+                        reclaimPending();
+                    }
+
+                    // 1.从消息队列中批量取出订单信息 XREADGROUP GROUP g1 c COUNT n BLOCK 2000 STREAMS stream.voucherOrders >
+                    List<MapRecord<String, Object, Object>> list = read(ReadOffset.lastConsumed(), blockMillis);
 
                     // 2.判断订单信息是否为空
                     if (list == null || list.isEmpty()) {
@@ -87,8 +166,11 @@ public class StreamAsynchronousVoucherOrderServiceImpl
                     }
 
                     // 3.创建订单，确认消息
-                    createAndAckOrder(list);
+                    createAndAckOrders(list);
                 } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
                     log.error("创建订单异常！", e);
                     // 处理异常消息
                     handlePendingList();
@@ -96,15 +178,13 @@ public class StreamAsynchronousVoucherOrderServiceImpl
             }
         }
 
+        // 从头到尾处理一遍本消费者pending-list中的消息，仍然失败的消息由reclaimPending重试或转入死信队列
         private void handlePendingList() {
-            while (true) {
+            String offset = "0";
+            while (running) {
                 try {
-                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c COUNT n STREAMS stream.voucherOrders offset
+                    List<MapRecord<String, Object, Object>> list = read(ReadOffset.from(offset), 0);
 
                     // 2.判断订单信息是否为空
                     if (list == null || list.isEmpty()) {
@@ -112,42 +192,175 @@ public class StreamAsynchronousVoucherOrderServiceImpl
                         break;
                     }
 
-                    // 3.创建订单，确认消息
-                    createAndAckOrder(list);
+                    // 3.创建订单，确认消息，从这一批的最后一条消息之后继续读取
+                    pendingCount.add(list.size());
+                    createAndAckOrders(list);
+                    offset = list.get(list.size() - 1).getId().getValue();
                 } catch (Exception e) {
                     log.error("处理pending订单异常", e);
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
+                    break;
+                }
+            }
+        }
+
+        // XPENDING stream.voucherOrders g1 - + n，空闲超过idle-millis的消息XCLAIM给本消费者后重新处理，投递次数过多的转入死信队列
+        private void reclaimPending() {
+            PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                    SEC_KILL_ORDER_STREAM_KEY, SEC_KILL_ORDER_GROUP, Range.unbounded(), batchSize);
+            Map<RecordId, Long> deliveries = new HashMap<>();
+            for (PendingMessage message : pending) {
+                if (message.getElapsedTimeSinceLastDelivery().toMillis() >= pendingIdleMillis) {
+                    deliveries.put(message.getId(), message.getTotalDeliveryCount());
+                }
+            }
+            if (deliveries.isEmpty()) {
+                return;
+            }
+
+            // XCLAIM只返回空闲时间仍然超过阈值的消息，其他消费者同时转移的消息不会重复处理
+            List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                    ((StringRedisConnection) connection).xClaim(SEC_KILL_ORDER_STREAM_KEY, SEC_KILL_ORDER_GROUP,
+                            consumer.getName(), Duration.ofMillis(pendingIdleMillis), deliveries.keySet().toArray(new RecordId[0])));
+            if (claimed == null || claimed.isEmpty()) {
+                return;
+            }
+            List<StringRecord> retries = new ArrayList<>(claimed.size());
+            for (StringRecord record : claimed) {
+                if (deliveries.getOrDefault(record.getId(), 0L) >= maxDeliveries) {
+                    deadLetter(record);
+                } else {
+                    retries.add(record);
                 }
             }
+            if (!retries.isEmpty()) {
+                pendingCount.add(retries.size());
+                createAndAckOrders(retries);
+            }
+        }
+
+        // 转入死信队列后确认消息，redis中已经扣减的库存需要人工处理或由库存对账发现
+        private void deadLetter(StringRecord record) {
+            Map<String, String> value = new HashMap<>(record.getValue());
+            value.put("sourceId", record.getId().getValue());
+            stringRedisTemplate.opsForStream().add(SEC_KILL_ORDER_DEAD_LETTER_KEY, value);
+            stringRedisTemplate.opsForStream().acknowledge(SEC_KILL_ORDER_STREAM_KEY, SEC_KILL_ORDER_GROUP, record.getId());
+            deadLetterCount.increment();
+            log.error("订单消息投递{}次仍然失败，转入死信队列，id = {}，order = {}", maxDeliveries, record.getId(), record.getValue());
         }
 
-        private void createAndAckOrder(List<MapRecord<String, Object, Object>> list) {
+        // StreamOffset是泛型的可变参数
+        @SuppressWarnings("unchecked")
+        private List<MapRecord<String, Object, Object>> read(ReadOffset readOffset, long block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+            if (block > 0) {
+                options = options.block(Duration.ofMillis(block));
+            }
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                    consumer, options, StreamOffset.create(SEC_KILL_ORDER_STREAM_KEY, readOffset));
+            if (list != null) {
+                readCount.add(list.size());
+            }
+            return list;
+        }
+
+        /**
+         * 批量创建订单后一次确认整批消息，批量写入失败时逐个创建并只确认成功的消息
+         * @return 确认的消息数
+         */
+        private int createAndAckOrders(List<? extends MapRecord<String, ?, ?>> list) {
             // 1.创建订单
-            MapRecord<String, Object, Object> record = list.get(0);
-            Map<Object, Object> value = record.getValue();
-            VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-            proxy.createVoucherOrder(voucherOrder);
+            List<VoucherOrder> voucherOrders = new ArrayList<>(list.size());
+            for (MapRecord<String, ?, ?> record : list) {
+                voucherOrders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            }
+            boolean[] written = voucherOrderWriter.write(voucherOrders);
+            List<RecordId> acked = new ArrayList<>(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                if (written[i]) {
+                    acked.add(list.get(i).getId());
+                } else {
+                    failedCount.increment();
+                }
+            }
 
-            // 2.确认消息
-            stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
+            // 2.确认消息，失败的消息留在pending-list中重试
+            if (!acked.isEmpty()) {
+                stringRedisTemplate.opsForStream().acknowledge(SEC_KILL_ORDER_STREAM_KEY, SEC_KILL_ORDER_GROUP,
+                        acked.toArray(new RecordId[0]));
+                ackCount.add(acked.size());
+            }
+            return acked.size();
         }
     }
 
-    // 类初始化完成后就执行此方法，等待阻塞队列中的订单信息
-//    @PostConstruct
+    // 类初始化完成后创建消费者组，启动消费者线程，等待消息队列中的订单信息
+    @PostConstruct
     public void init() {
-        secKill_VoucherOrder_Executor.submit(new VoucherHandler());
+        if (!enabled) {
+            return;
+        }
+        createGroup();
+        String prefix = StrUtil.isNotBlank(consumerPrefix) ? consumerPrefix : NetUtil.getLocalHostName() + ":" + serverPort;
+        running = true;
+        startedAt = System.currentTimeMillis();
+        secKill_VoucherOrder_Executor = Executors.newFixedThreadPool(consumers, ThreadUtil.newNamedThreadFactory("stream-voucher-order-", true));
+        for (int i = 0; i < consumers; i++) {
+            secKill_VoucherOrder_Executor.submit(new VoucherHandler(prefix + "-" + i));
+        }
+        log.info("订单消费者已启动，consumer = {}-[0, {})，batch-size = {}", prefix, consumers, batchSize);
+    }
+
+    // XGROUP CREATE stream.voucherOrders g1 0 MKSTREAM，消费者组已存在时忽略
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    SEC_KILL_ORDER_STREAM_KEY.getBytes(StandardCharsets.UTF_8), SEC_KILL_ORDER_GROUP, ReadOffset.from("0"), true));
+            log.info("创建消费者组：{} {}", SEC_KILL_ORDER_STREAM_KEY, SEC_KILL_ORDER_GROUP);
+        } catch (Exception e) {
+            if (!StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (secKill_VoucherOrder_Executor != null) {
+            secKill_VoucherOrder_Executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return 消费者数量、读取/确认/失败的消息数、订单写入的批次数和启动以来的平均吞吐量（订单/秒）
+     */
+    public Map<String, Object> streamStats() {
+        long read = readCount.sum();
+        long acked = ackCount.sum();
+        double seconds = running ? (System.currentTimeMillis() - startedAt) / 1000.0 : 0;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("consumers", running ? consumers : 0);
+        stats.put("batchSize", batchSize);
+        stats.put("read", read);
+        stats.put("writer", voucherOrderWriter.stats());
+        stats.put("acked", acked);
+        stats.put("failed", failedCount.sum());
+        stats.put("pendingRetried", pendingCount.sum());
+        stats.put("deadLettered", deadLetterCount.sum());
+        stats.put("ackedPerSecond", seconds > 0 ? acked / seconds : 0);
+        return stats;
     }
 
     @Override
     public Result secKillVoucher(Long voucherId) {
+        // 已售罄，直接拒绝，不访问redis和数据库
+        if (soldOutMarker.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
 
-        // 1.查询优惠券信息
-        SecKillVoucher secKillVoucher = secKillVoucherService.getById(voucherId);
+        // 1.查询优惠券信息，只访问进程内缓存
+        SecKillVoucher secKillVoucher = secKillVoucherCache.get(voucherId);
         if (secKillVoucher == null) {
             return Result.fail("优惠券不存在！");
         }
@@ -165,17 +378,54 @@ public class StreamAsynchronousVoucherOrderServiceImpl
 
         // 4.执行Lua脚本，判断库存是否充足，用户是否已经购买过该优惠券
         long voucherOrderId = redisIdWorker.nextId("voucherOrder");     // 创建订单id
-        Long result = stringRedisTemplate.execute(SEC_KILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(voucherOrderId));
-
+        if (segmentedStock.isSegmented(voucherId)) {
+            return secKillSegmented(voucherId, userId, voucherOrderId);
+        }
+        // 扣减库存和发送消息在同一个脚本中完成：等待结果超时时如果脚本已经执行，订单仍会通过消息队列创建，不能归还库存
+        Long result = redisScripts.executeBatched(SEC_KILL_BY_STREAM, Collections.emptyList(),
+                voucherId, userId, voucherOrderId);
+
+        if (result != null && result == 1) {
+            // 库存不足，通知所有节点标记售罄
+            soldOutMarker.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
         if (result != null && result != 0) {
-            return Result.fail(result == 1 ? "库存不足" : "该用户已经购买过此优惠券");
+            return Result.fail("该用户已经购买过此优惠券");
         }
 
-        // 5.获取代理对象，控制事务
-        if (proxy == null) {
-            proxy = (IVoucherOrderService) AopContext.currentProxy();
+        return Result.ok(voucherOrderId);
+    }
+
+    // 分段的秒杀券：各段与消息队列不在同一个分片，扣减成功后再发送消息，发送失败时归还库存
+    private Result secKillSegmented(Long voucherId, Long userId, long voucherOrderId) {
+        Long result;
+        try {
+            result = segmentedStock.secKill(voucherId, userId);
+        } catch (Exception e) {
+            // 等待结果超时时脚本可能已经扣减了库存，但还没有发送消息，归还库存；只有删除了用户的下单记录才会归还库存
+            log.error("执行分段秒杀脚本失败！voucherId = {}, userId = {}", voucherId, userId, e);
+            segmentedStock.rollback(voucherId, userId);
+            return Result.fail("系统繁忙，请稍后重试");
+        }
+        if (result == 1) {
+            soldOutMarker.markSoldOut(voucherId);
+            return Result.fail("库存不足");
+        }
+        if (result != 0) {
+            return Result.fail("该用户已经购买过此优惠券");
+        }
+
+        // XADD stream.voucherOrders * userId v voucherId v id v
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", String.valueOf(voucherOrderId));
+        try {
+            stringRedisTemplate.opsForStream().add(StreamRecords.mapBacked(order).withStreamKey(SEC_KILL_ORDER_STREAM_KEY));
+        } catch (Exception e) {
+            segmentedStock.rollback(voucherId, userId);
+            throw e;
         }
         return Result.ok(voucherOrderId);
     }
@@ -186,28 +436,7 @@ public class StreamAsynchronousVoucherOrderServiceImpl
     }
 
     @Override
-    @Transactional
     public void createVoucherOrder(VoucherOrder voucherOrder) {
-        Long userId = voucherOrder.getUserId();
-
-        // 1.一人一单
-        Long count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-        if (count == 1) {
-            // 用户已经购买过该优惠券
-            log.error("该用户已经购买过此优惠券！");
-            return;
-        }
-
-        // 2.扣减库存
-        boolean result = secKillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
-                .update();
-        if (!result) {
-            log.error("库存不足！");
-        }
-
-        // 3.创建订单
-        save(voucherOrder);
+        voucherOrderWriter.writeOne(voucherOrder);
     }
 }
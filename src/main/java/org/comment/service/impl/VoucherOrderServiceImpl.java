@@ -9,7 +9,10 @@ import org.comment.mapper.VoucherOrderMapper;
 import org.comment.service.ISecKillVoucherService;
 import org.comment.service.IVoucherOrderService;
 import org.comment.utils.RedisIdWorker;
+import org.comment.utils.RedisScripts;
+import org.comment.utils.SecKillVoucherCache;
 import org.comment.utils.SimpleRedisLock;
+import org.comment.utils.SoldOutMarker;
 import org.comment.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
@@ -24,6 +27,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -42,16 +46,30 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private SoldOutMarker soldOutMarker;
+
+    @Resource
+    private SecKillVoucherCache secKillVoucherCache;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private RedisScripts redisScripts;
+
     @Resource
     private RedissonClient redissonClient;
 
     @Override
     public Result secKillVoucher(Long voucherId) {
-        // 1.查询优惠券信息
-        SecKillVoucher secKillVoucher = secKillVoucherService.getById(voucherId);
+        // 已售罄，直接拒绝，不访问redis和数据库
+        if (soldOutMarker.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+
+        // 1.查询优惠券信息，只访问进程内缓存
+        SecKillVoucher secKillVoucher = secKillVoucherCache.get(voucherId);
         if (secKillVoucher == null) {
             return Result.fail("优惠券不存在！");
         }
@@ -64,10 +82,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             return Result.fail("秒杀活动已经结束！");
         }
 
-        // 3.判断库存是否充足
-        if (secKillVoucher.getStock() < 1) {
-            return Result.fail("库存不足！");
-        }
+        // 3.库存在扣减时判断，售罄后标记
 
         Long userId = UserHolder.getUser().getId();
         // 使用悲观锁控制并发访问（单机模式）
@@ -79,7 +94,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
         // 利用redis的分布式锁控制集群的并发访问（集群模式）
         /*// 1.创建锁对象
-        SimpleRedisLock redisLock = new SimpleRedisLock("voucherOrder" + userId, stringRedisTemplate);
+        SimpleRedisLock redisLock = new SimpleRedisLock("voucherOrder" + userId, stringRedisTemplate, redisScripts);
 
         // 2.尝试获取锁
         boolean isLock = redisLock.tryLock(1);
@@ -129,6 +144,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                 .update();
 
         if (!result) {
+            soldOutMarker.markSoldOut(voucherId);
             return Result.fail("库存不足！");
         }
 
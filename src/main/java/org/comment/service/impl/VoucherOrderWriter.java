@@ -0,0 +1,223 @@
+package org.comment.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.comment.entity.VoucherOrder;
+import org.comment.mapper.VoucherOrderMapper;
+import org.comment.service.ISecKillVoucherService;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 阻塞队列和Stream两种异步秒杀共用的订单写入
+ * 批量写入时在一个事务中按优惠券合并扣减库存并批量插入订单，失败（库存冲突、重复订单等）时回滚，再逐个写入
+ */
+@Slf4j
+@Component
+class VoucherOrderWriter {
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    // 代理对象，控制事务
+    @Lazy
+    @Resource
+    private VoucherOrderWriter proxy;
+
+    // 数据库已经创建唯一索引(user_id, voucher_id)时开启，见db/tb_voucher_order_unique.sql
+    @Value("${comment.seckill.order-insert.unique-index:false}")
+    private boolean uniqueIndex;
+
+    // 批量写入成功的批次数
+    private final LongAdder batches = new LongAdder();
+
+    // 批量写入失败后逐个写入的批次数
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * 批量写入订单，失败时逐个写入
+     * @param voucherOrders 订单
+     * @return 每个订单是否已经处理，重复订单和库存不足也算作已处理；未处理的订单由调用方决定是否重试
+     */
+    public boolean[] write(List<VoucherOrder> voucherOrders) {
+        boolean[] written = new boolean[voucherOrders.size()];
+        try {
+            proxy.createVoucherOrders(voucherOrders);
+            batches.increment();
+            Arrays.fill(written, true);
+            return written;
+        } catch (Exception e) {
+            fallbacks.increment();
+            log.warn("批量创建订单失败，逐个创建，size = {}", voucherOrders.size(), e);
+        }
+        for (int i = 0; i < voucherOrders.size(); i++) {
+            try {
+                writeOne(voucherOrders.get(i));
+                written[i] = true;
+            } catch (Exception e) {
+                log.error("创建订单异常！id = {}", voucherOrders.get(i).getId(), e);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * 写入一个订单，未开启唯一索引时先获取用户的分布式锁
+     * @param voucherOrder 订单
+     */
+    public void writeOne(VoucherOrder voucherOrder) {
+        if (uniqueIndex) {
+            // 由唯一索引保证一人一单，不需要加锁
+            proxy.createVoucherOrder(voucherOrder);
+            return;
+        }
+
+        Long userId = voucherOrder.getUserId();
+
+        // 利用redisson实现分布式锁
+        RLock rLock = redissonClient.getLock("lock:voucherOrder" + userId);
+        boolean isLock = rLock.tryLock();
+        if (!isLock) {
+            throw new IllegalStateException("获取锁失败！userId = " + userId);
+        }
+
+        try {
+            // 创建订单
+            proxy.createVoucherOrder(voucherOrder);
+        } finally {
+            // 释放锁
+            rLock.unlock();
+        }
+    }
+
+    @Transactional
+    public void createVoucherOrder(VoucherOrder voucherOrder) {
+        if (uniqueIndex) {
+            insertVoucherOrder(voucherOrder);
+            return;
+        }
+
+        Long userId = voucherOrder.getUserId();
+
+        // 1.一人一单
+        Long count = voucherOrderMapper.selectCount(new QueryWrapper<VoucherOrder>()
+                .eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()));
+        if (count == 1) {
+            // 用户已经购买过该优惠券
+            log.error("该用户已经购买过此优惠券！");
+            return;
+        }
+
+        // 2.扣减库存
+        boolean result = secKillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
+                .update();
+        if (!result) {
+            log.error("库存不足！");
+        }
+
+        // 3.创建订单
+        voucherOrderMapper.insert(voucherOrder);
+    }
+
+    // 依赖唯一索引(user_id, voucher_id)保证一人一单：不需要先查询，也不需要分布式锁
+    // 先扣减库存（直接获取库存行的排他锁），再插入订单，避免先加共享锁再升级为排他锁导致并发消费者之间死锁
+    private void insertVoucherOrder(VoucherOrder voucherOrder) {
+        // 1.扣减库存
+        boolean result = secKillVoucherService.update()
+                .setSql("stock = stock - 1")
+                .eq("voucher_id", voucherOrder.getVoucherId()).gt("stock", 0)
+                .update();
+        if (!result) {
+            log.error("库存不足！voucherId = {}", voucherOrder.getVoucherId());
+            return;
+        }
+
+        // 2.创建订单，重复订单时回滚扣减的库存
+        try {
+            voucherOrderMapper.insert(voucherOrder);
+        } catch (DuplicateKeyException e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            log.error("该用户已经购买过此优惠券！userId = {}, voucherId = {}",
+                    voucherOrder.getUserId(), voucherOrder.getVoucherId());
+        }
+    }
+
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // 1.一人一单，过滤掉同一批中的重复订单；未开启唯一索引时还要过滤掉已经创建过的订单（例如重复投递），
+        // 开启唯一索引时由批量插入的唯一索引冲突回滚整批，再逐个写入
+        Set<String> created = uniqueIndex ? new HashSet<>() : selectCreated(voucherOrders);
+        List<VoucherOrder> toCreate = voucherOrders.stream()
+                .filter(voucherOrder -> created.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId()))
+                .collect(Collectors.toList());
+        if (toCreate.size() < voucherOrders.size()) {
+            log.error("该用户已经购买过此优惠券！重复订单数：{}", voucherOrders.size() - toCreate.size());
+        }
+        if (toCreate.isEmpty()) {
+            return;
+        }
+
+        // 2.按优惠券合并扣减库存，库存不足时回滚整批
+        Map<Long, Long> counts = toCreate.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> {
+            boolean result = secKillVoucherService.update()
+                    .setSql("stock = stock - " + count)
+                    .eq("voucher_id", voucherId).ge("stock", count)
+                    .update();
+            if (!result) {
+                throw new IllegalStateException("库存不足！voucherId = " + voucherId);
+            }
+        });
+
+        // 3.批量创建订单
+        voucherOrderMapper.insertBatch(toCreate);
+    }
+
+    // 查询已经创建过的订单，返回 userId:voucherId
+    private Set<String> selectCreated(List<VoucherOrder> voucherOrders) {
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> voucherIds = new HashSet<>();
+        voucherOrders.forEach(voucherOrder -> {
+            userIds.add(voucherOrder.getUserId());
+            voucherIds.add(voucherOrder.getVoucherId());
+        });
+        return voucherOrderMapper.selectList(new QueryWrapper<VoucherOrder>()
+                        .select("user_id", "voucher_id")
+                        .in("user_id", userIds)
+                        .in("voucher_id", voucherIds))
+                .stream()
+                .map(voucherOrder -> voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * @return 批量写入成功的批次数和失败后逐个写入的批次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("uniqueIndex", uniqueIndex);
+        stats.put("batches", batches.sum());
+        stats.put("fallbacks", fallbacks.sum());
+        return stats;
+    }
+}
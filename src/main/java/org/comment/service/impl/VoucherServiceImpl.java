@@ -1,20 +1,26 @@
 package org.comment.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.comment.dto.Result;
 import org.comment.entity.SecKillVoucher;
 import org.comment.entity.Voucher;
+import org.comment.entity.VoucherOrder;
 import org.comment.mapper.VoucherMapper;
+import org.comment.mapper.VoucherOrderMapper;
 import org.comment.service.ISecKillVoucherService;
 import org.comment.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.comment.utils.SegmentedStock;
+import org.comment.utils.SoldOutMarker;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
-
-import static org.comment.utils.RedisConstants.SEC_KILL_STOCK_KEY;
+import java.util.Map;
 
 @Service
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
@@ -23,7 +29,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISecKillVoucherService secKillVoucherService;
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private SegmentedStock segmentedStock;
+
+    @Resource
+    private SoldOutMarker soldOutMarker;
+
+    @Resource
+    private ApplicationEventPublisher applicationEventPublisher;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -47,7 +62,61 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         secKillVoucher.setEndTime(voucher.getEndTime());
         secKillVoucherService.save(secKillVoucher);
 
-        // 3.将秒杀信息存入redis
-        stringRedisTemplate.opsForValue().set(SEC_KILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 3.将秒杀信息存入redis，库存足够多时分段
+        segmentedStock.init(voucher.getId(), voucher.getStock());
+
+        // 4.事务提交后刷新所有节点的秒杀券缓存
+        applicationEventPublisher.publishEvent(secKillVoucher);
+    }
+
+    @Override
+    @Transactional
+    public Result addSecKillStock(Long voucherId, Integer count) {
+        if (count == null || count <= 0) {
+            return Result.fail("补充的库存必须大于0！");
+        }
+
+        // 1.增加数据库中的库存
+        boolean result = secKillVoucherService.update()
+                .setSql("stock = stock + " + count)
+                .eq("voucher_id", voucherId)
+                .update();
+        if (!result) {
+            return Result.fail("优惠券不存在！");
+        }
+
+        // 2.事务提交后再增加redis中的库存，事务回滚时redis中不会多出数据库中没有的库存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                // 2.1 分段的秒杀券平均补充到每个段
+                segmentedStock.addStock(voucherId, count);
+
+                // 2.2 库存补充后再清除所有节点的售罄标记
+                soldOutMarker.reset(voucherId);
+            }
+        });
+        return Result.ok();
+    }
+
+    @Override
+    public Result reconcileSecKillStock(Long voucherId, boolean rebalance) {
+        SecKillVoucher secKillVoucher = secKillVoucherService.getById(voucherId);
+        if (secKillVoucher == null) {
+            return Result.fail("优惠券不存在！");
+        }
+
+        // 1.汇总redis中所有段的剩余库存和订单数
+        Map<String, Object> result = segmentedStock.reconcile(voucherId, rebalance);
+
+        // 2.与数据库对比：redis中的库存+订单数应当等于数据库中的库存+订单数，
+        // 两边订单数的差是已经秒杀成功、还没有写入数据库的订单
+        long redisTotal = (Long) result.get("stock") + (Long) result.get("orders");
+        long dbOrders = voucherOrderMapper.selectCount(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId));
+        result.put("dbStock", secKillVoucher.getStock());
+        result.put("dbOrders", dbOrders);
+        result.put("pendingOrders", (Long) result.get("orders") - dbOrders);
+        result.put("consistent", redisTotal == secKillVoucher.getStock() + dbOrders);
+        return Result.ok(result);
     }
 }
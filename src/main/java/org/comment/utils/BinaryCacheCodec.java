@@ -0,0 +1,426 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 紧凑的二进制序列化
+ * 每个类的结构（字段、getter/setter、构造器）只在第一次使用时解析一次，并通过LambdaMetafactory生成访问函数，
+ * 序列化时不再使用反射，也不写入字段名
+ * 格式：格式标识(1字节) + 类结构指纹(4字节) + 字段非空位图 + 按字段名排序的非空字段值
+ * 类结构发生变化后指纹不同，旧数据反序列化返回null，由调用方当作缓存未命中处理
+ */
+@Slf4j
+@Component
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+
+    // 格式标识
+    public static final byte FORMAT = 0x01;
+
+    // 不支持的类
+    private static final Schema UNSUPPORTED = new Schema(null, Collections.emptyList(), 0);
+
+    // 类 -> 类结构
+    private final Map<Class<?>, Schema> schemas = new ConcurrentHashMap<>();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean supports(Class<?> type) {
+        return schemaOf(type) != UNSUPPORTED;
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes) {
+        return bytes[0] == FORMAT;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Schema schema = schemaOf(value.getClass());
+        if (schema == UNSUPPORTED) {
+            throw new IllegalArgumentException("二进制序列化不支持该类型：" + value.getClass().getName());
+        }
+        List<FieldAccessor> fields = schema.fields;
+        Buffer buffer = new Buffer(64 + fields.size() * 8);
+        buffer.write(FORMAT);
+        buffer.writeInt(schema.fingerprint);
+
+        // 预留非空位图
+        int bitmap = buffer.position;
+        buffer.skip((fields.size() + 7) >>> 3);
+        for (int i = 0; i < fields.size(); i++) {
+            FieldAccessor field = fields.get(i);
+            Object fieldValue = field.getter.apply(value);
+            if (fieldValue == null) {
+                continue;
+            }
+            buffer.bytes[bitmap + (i >>> 3)] |= (byte) (1 << (i & 7));
+            field.type.write(buffer, fieldValue);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        Schema schema = schemaOf(type);
+        Buffer buffer = new Buffer(bytes);
+        if (schema == UNSUPPORTED || buffer.read() != FORMAT || buffer.readInt() != schema.fingerprint) {
+            // 类结构已经变化
+            return null;
+        }
+        List<FieldAccessor> fields = schema.fields;
+        int bitmap = buffer.position;
+        buffer.skip((fields.size() + 7) >>> 3);
+        Object value = schema.constructor.get();
+        for (int i = 0; i < fields.size(); i++) {
+            if ((bytes[bitmap + (i >>> 3)] & (1 << (i & 7))) == 0) {
+                continue;
+            }
+            FieldAccessor field = fields.get(i);
+            field.setter.accept(value, field.type.read(buffer));
+        }
+        return (T) value;
+    }
+
+    private Schema schemaOf(Class<?> type) {
+        return schemas.computeIfAbsent(type, BinaryCacheCodec::createSchema);
+    }
+
+    // 解析类结构，只在每个类第一次使用时执行
+    private static Schema createSchema(Class<?> type) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Supplier<Object> constructor = createConstructor(lookup, type);
+
+            // 收集有getter和setter的字段，按字段名排序
+            TreeMap<String, Field> declared = new TreeMap<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        declared.putIfAbsent(field.getName(), field);
+                    }
+                }
+            }
+            List<FieldAccessor> fields = new ArrayList<>(declared.size());
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (Field field : declared.values()) {
+                FieldType fieldType = FieldType.of(field.getType());
+                Method getter = findGetter(type, field);
+                Method setter = findSetter(type, field);
+                if (getter == null || setter == null) {
+                    continue;
+                }
+                if (fieldType == null) {
+                    log.debug("二进制序列化不支持字段类型，type = {}，field = {}", type.getName(), field.getName());
+                    return UNSUPPORTED;
+                }
+                fields.add(new FieldAccessor(fieldType, createGetter(lookup, type, getter), createSetter(lookup, type, setter)));
+                signature.append(';').append(field.getName()).append(':').append(fieldType.name());
+            }
+            return new Schema(constructor, fields, signature.toString().hashCode());
+        } catch (Throwable e) {
+            log.debug("二进制序列化不支持该类型，type = {}", type.getName(), e);
+            return UNSUPPORTED;
+        }
+    }
+
+    private static Method findGetter(Class<?> type, Field field) {
+        String name = capitalize(field.getName());
+        for (String prefix : new String[]{"get", "is"}) {
+            try {
+                Method method = type.getMethod(prefix + name);
+                if (method.getReturnType() == field.getType()) {
+                    return method;
+                }
+            } catch (NoSuchMethodException ignored) {
+                // 尝试下一个前缀
+            }
+        }
+        return null;
+    }
+
+    private static Method findSetter(Class<?> type, Field field) {
+        try {
+            // 链式setter的返回值不是void，同样可以使用
+            return type.getMethod("set" + capitalize(field.getName()), field.getType());
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Object> createConstructor(MethodHandles.Lookup lookup, Class<?> type) throws Throwable {
+        MethodHandle handle = lookup.findConstructor(type, MethodType.methodType(void.class));
+        CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                MethodType.methodType(Supplier.class),
+                MethodType.methodType(Object.class),
+                handle,
+                MethodType.methodType(type));
+        return (Supplier<Object>) site.getTarget().invoke();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Function<Object, Object> createGetter(MethodHandles.Lookup lookup, Class<?> type, Method getter) throws Throwable {
+        MethodHandle handle = lookup.unreflect(getter);
+        CallSite site = LambdaMetafactory.metafactory(lookup, "apply",
+                MethodType.methodType(Function.class),
+                MethodType.methodType(Object.class, Object.class),
+                handle,
+                MethodType.methodType(MethodType.methodType(getter.getReturnType()).wrap().returnType(), type));
+        return (Function<Object, Object>) site.getTarget().invoke();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> createSetter(MethodHandles.Lookup lookup, Class<?> type, Method setter) throws Throwable {
+        MethodHandle handle = lookup.unreflect(setter);
+        CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+                MethodType.methodType(BiConsumer.class),
+                MethodType.methodType(void.class, Object.class, Object.class),
+                handle,
+                MethodType.methodType(void.class, type, MethodType.methodType(setter.getParameterTypes()[0]).wrap().returnType()));
+        return (BiConsumer<Object, Object>) site.getTarget().invoke();
+    }
+
+    // 类结构
+    private static class Schema {
+        private final Supplier<Object> constructor;
+        private final List<FieldAccessor> fields;
+        private final int fingerprint;
+
+        private Schema(Supplier<Object> constructor, List<FieldAccessor> fields, int fingerprint) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    // 字段的访问函数
+    private static class FieldAccessor {
+        private final FieldType type;
+        private final Function<Object, Object> getter;
+        private final BiConsumer<Object, Object> setter;
+
+        private FieldAccessor(FieldType type, Function<Object, Object> getter, BiConsumer<Object, Object> setter) {
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    // 支持的字段类型
+    private enum FieldType {
+        LONG {
+            void write(Buffer buffer, Object value) {
+                buffer.writeVarLong((Long) value);
+            }
+
+            Object read(Buffer buffer) {
+                return buffer.readVarLong();
+            }
+        },
+        INT {
+            void write(Buffer buffer, Object value) {
+                buffer.writeVarLong((Integer) value);
+            }
+
+            Object read(Buffer buffer) {
+                return (int) buffer.readVarLong();
+            }
+        },
+        DOUBLE {
+            void write(Buffer buffer, Object value) {
+                buffer.writeLong(Double.doubleToRawLongBits((Double) value));
+            }
+
+            Object read(Buffer buffer) {
+                return Double.longBitsToDouble(buffer.readLong());
+            }
+        },
+        BOOLEAN {
+            void write(Buffer buffer, Object value) {
+                buffer.write((byte) ((Boolean) value ? 1 : 0));
+            }
+
+            Object read(Buffer buffer) {
+                return buffer.read() == 1;
+            }
+        },
+        STRING {
+            void write(Buffer buffer, Object value) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                buffer.writeVarLong(bytes.length);
+                buffer.write(bytes);
+            }
+
+            Object read(Buffer buffer) {
+                int length = (int) buffer.readVarLong();
+                String value = new String(buffer.bytes, buffer.position, length, StandardCharsets.UTF_8);
+                buffer.skip(length);
+                return value;
+            }
+        },
+        DATE_TIME {
+            void write(Buffer buffer, Object value) {
+                LocalDateTime dateTime = (LocalDateTime) value;
+                buffer.writeVarLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+                buffer.writeVarLong(dateTime.getNano());
+            }
+
+            Object read(Buffer buffer) {
+                long seconds = buffer.readVarLong();
+                return LocalDateTime.ofEpochSecond(seconds, (int) buffer.readVarLong(), ZoneOffset.UTC);
+            }
+        };
+
+        abstract void write(Buffer buffer, Object value);
+
+        abstract Object read(Buffer buffer);
+
+        static FieldType of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return DATE_TIME;
+            }
+            return null;
+        }
+    }
+
+    // 可扩容的字节缓冲区，整数使用zigzag变长编码
+    private static class Buffer {
+        private byte[] bytes;
+        private int position;
+
+        private Buffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        private Buffer(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private void ensure(int length) {
+            if (position + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, position + length));
+            }
+        }
+
+        private void skip(int length) {
+            ensure(length);
+            position += length;
+        }
+
+        private void write(byte b) {
+            ensure(1);
+            bytes[position++] = b;
+        }
+
+        private void write(byte[] src) {
+            ensure(src.length);
+            System.arraycopy(src, 0, bytes, position, src.length);
+            position += src.length;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarLong(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            ensure(10);
+            while ((zigzag & ~0x7FL) != 0) {
+                bytes[position++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes[position++] = (byte) zigzag;
+        }
+
+        private byte read() {
+            return bytes[position++];
+        }
+
+        private int readInt() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        private long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, position);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.comment.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内布隆过滤器，线程安全
+ * 判断不存在则一定不存在，判断存在则有一定的误判率
+ */
+public class BloomFilter {
+
+    // 位数组
+    private final AtomicLongArray bits;
+
+    // 位数组长度
+    private final long bitSize;
+
+    // 哈希函数个数
+    private final int hashFunctions;
+
+    /**
+     * @param expectedInsertions 预计插入的元素个数
+     * @param fpp 期望的误判率，例如0.01
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions <= 0) {
+            expectedInsertions = 1;
+        }
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("误判率必须在0到1之间：" + fpp);
+        }
+        // m = -n * ln(p) / (ln2)^2
+        long m = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // k = m / n * ln2
+        int k = (int) Math.round((double) m / expectedInsertions * Math.log(2));
+        this.bits = new AtomicLongArray((int) ((Math.max(m, 64) + 63) >>> 6));
+        this.bitSize = this.bits.length() * 64L;
+        this.hashFunctions = Math.max(k, 1);
+    }
+
+    /**
+     * 添加元素
+     * @param value 元素
+     */
+    public void put(String value) {
+        long[] hash = MurmurHash.hash128(value);
+        long combined = hash[0];
+        for (int i = 0; i < hashFunctions; i++) {
+            setBit((combined & Long.MAX_VALUE) % bitSize);
+            combined += hash[1];
+        }
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @param value 元素
+     * @return false代表一定不存在，true代表可能存在
+     */
+    public boolean mightContain(String value) {
+        long[] hash = MurmurHash.hash128(value);
+        long combined = hash[0];
+        for (int i = 0; i < hashFunctions; i++) {
+            if (!getBit((combined & Long.MAX_VALUE) % bitSize)) {
+                return false;
+            }
+            combined += hash[1];
+        }
+        return true;
+    }
+
+    private void setBit(long index) {
+        int i = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old;
+        do {
+            old = bits.get(i);
+            if ((old & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(i, old, old | mask));
+    }
+
+    private boolean getBit(long index) {
+        return (bits.get((int) (index >>> 6)) & (1L << index)) != 0;
+    }
+}
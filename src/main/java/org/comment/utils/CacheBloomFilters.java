@@ -0,0 +1,206 @@
+package org.comment.utils;
+
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.comment.utils.RedisConstants.CACHE_BLOOM_CHANNEL;
+
+/**
+ * 按业务前缀管理布隆过滤器，用于解决缓存穿透
+ * 不可能存在的id在访问redis和数据库之前就被拦截，新增的id通过Redis发布订阅同步到所有节点。
+ * 发布订阅的消息可能丢失，数据也可能不经过put写入数据库，因此：
+ * 1.定期重建布隆过滤器；
+ * 2.判断不存在的请求按限定的速率放行一部分，查询数据库后发现存在的id补充到本节点的过滤器中
+ */
+@Slf4j
+@Component
+public class CacheBloomFilters implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 期望的误判率
+    @Value("${comment.cache.bloom.fpp:0.01}")
+    private double fpp;
+
+    // 预计插入的元素个数，实际容量取该值和当前数据量两倍中的较大者
+    @Value("${comment.cache.bloom.expected-insertions:100000}")
+    private long expectedInsertions;
+
+    // 定期重建的间隔（秒），0代表不定期重建
+    @Value("${comment.cache.bloom.rebuild-interval:600}")
+    private long rebuildInterval;
+
+    // 每个前缀每秒放行的判断为不存在的请求数
+    @Value("${comment.cache.bloom.miss-pass-per-second:10}")
+    private int missPassPerSecond;
+
+    // 业务前缀 -> 正在使用的布隆过滤器
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+
+    // 业务前缀 -> 正在重建的布隆过滤器，重建期间新增的id同时写入，避免切换后丢失
+    private final Map<String, BloomFilter> rebuilding = new ConcurrentHashMap<>();
+
+    // 别名前缀 -> 实际使用的布隆过滤器的前缀，例如同一实体的hash结构缓存使用实体的过滤器
+    private final Map<String, String> aliases = new ConcurrentHashMap<>();
+
+    // 业务前缀 -> 当前一秒内放行的不存在请求数，高32位为秒，低32位为计数
+    private final Map<String, AtomicLong> missPasses = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService rebuildScheduler =
+            Executors.newSingleThreadScheduledExecutor(ThreadUtil.newNamedThreadFactory("bloom-rebuild-", true));
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+    }
+
+    /**
+     * 定期重建布隆过滤器，修正同步消息丢失或绕过put写入数据库导致的遗漏
+     * @param keyPrefix 业务前缀
+     * @param rebuilder 重建函数，最终调用rebuild
+     */
+    public void scheduleRebuild(String keyPrefix, Runnable rebuilder) {
+        if (rebuildInterval <= 0) {
+            return;
+        }
+        rebuildScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebuilder.run();
+            } catch (Exception e) {
+                log.error("定期重建布隆过滤器失败，prefix = {}", keyPrefix, e);
+            }
+        }, rebuildInterval, rebuildInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        rebuildScheduler.shutdownNow();
+    }
+
+    /**
+     * 注册别名前缀，之后按别名前缀的判断和补充都使用目标前缀的布隆过滤器
+     * @param alias 别名前缀
+     * @param keyPrefix 已有布隆过滤器的业务前缀
+     */
+    public void alias(String alias, String keyPrefix) {
+        aliases.put(alias, keyPrefix);
+    }
+
+    private String resolve(String keyPrefix) {
+        return aliases.getOrDefault(keyPrefix, keyPrefix);
+    }
+
+    /**
+     * 判断id是否可能存在，该前缀没有布隆过滤器时一律放行
+     * 判断为不存在时，每秒仍放行miss-pass-per-second个请求查询redis和数据库，用于发现过滤器中遗漏的id
+     * @param keyPrefix 业务前缀
+     * @param id 具体业务id
+     * @return false代表一定不存在
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        keyPrefix = resolve(keyPrefix);
+        BloomFilter filter = filters.get(keyPrefix);
+        return filter == null || filter.mightContain(String.valueOf(id)) || tryPassMiss(keyPrefix);
+    }
+
+    private boolean tryPassMiss(String keyPrefix) {
+        if (missPassPerSecond <= 0) {
+            return false;
+        }
+        AtomicLong passes = missPasses.computeIfAbsent(keyPrefix, prefix -> new AtomicLong());
+        long second = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        while (true) {
+            long current = passes.get();
+            long count = current >>> 32 == (second & 0xFFFFFFFFL) ? current & 0xFFFFFFFFL : 0;
+            if (count >= missPassPerSecond) {
+                return false;
+            }
+            if (passes.compareAndSet(current, second << 32 | (count + 1))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 数据库中存在该id时调用，布隆过滤器遗漏了该id时补充到本节点的过滤器中
+     * @param keyPrefix 业务前缀
+     * @param id 具体业务id
+     */
+    public void confirm(String keyPrefix, Object id) {
+        keyPrefix = resolve(keyPrefix);
+        BloomFilter filter = filters.get(keyPrefix);
+        if (filter != null && !filter.mightContain(String.valueOf(id))) {
+            log.warn("布隆过滤器遗漏了存在的id，已补充，prefix = {}，id = {}", keyPrefix, id);
+            putLocal(keyPrefix + id);
+        }
+    }
+
+    /**
+     * 新增id，并通知其他节点
+     * @param keyPrefix 业务前缀
+     * @param id 具体业务id
+     */
+    public void put(String keyPrefix, Object id) {
+        putLocal(keyPrefix + id);
+        stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + id);
+    }
+
+    /**
+     * 重建布隆过滤器，完成后原子替换旧的过滤器
+     * @param keyPrefix 业务前缀
+     * @param count 当前数据量
+     * @param loader 遍历所有id的函数
+     */
+    public void rebuild(String keyPrefix, long count, Consumer<Consumer<Object>> loader) {
+        BloomFilter filter = new BloomFilter(Math.max(expectedInsertions, count * 2), fpp);
+        rebuilding.put(keyPrefix, filter);
+        try {
+            loader.accept(id -> filter.put(String.valueOf(id)));
+            filters.put(keyPrefix, filter);
+        } finally {
+            rebuilding.remove(keyPrefix);
+        }
+        log.info("布隆过滤器重建完成，prefix = {}，count = {}", keyPrefix, count);
+    }
+
+    private void putLocal(String key) {
+        putIfMatch(filters, key);
+        putIfMatch(rebuilding, key);
+    }
+
+    private static void putIfMatch(Map<String, BloomFilter> map, String key) {
+        map.forEach((prefix, filter) -> {
+            if (key.startsWith(prefix)) {
+                filter.put(key.substring(prefix.length()));
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        putLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
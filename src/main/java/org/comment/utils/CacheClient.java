@@ -1,19 +1,29 @@
 package org.comment.utils;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.convert.Convert;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.comment.utils.RedisConstants.*;
 
@@ -27,15 +37,125 @@ public class CacheClient {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    // 缓存的值使用CacheCodecs序列化为字节数组
+    @Resource
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    @Resource
+    private CacheCodecs cacheCodecs;
+
+    @Resource
+    private NearCache nearCache;
+
+    @Resource
+    private CacheBloomFilters cacheBloomFilters;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheTtlPolicy cacheTtlPolicy;
+
+    @Resource
+    private CacheFallbackLimiter cacheFallbackLimiter;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private ClientSideCache clientSideCache;
+
+    // 合并同一节点内对同一个key的缓存重建
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // hash结构的缓存中标记缓存存在的字段，值为空字符串代表数据库中不存在（缓存空值）
+    private static final String HASH_FLAG_FIELD = "_flag";
+
     /**
-     * 设置过期时间
+     * 设置过期时间，过期时间按前缀策略增加偏移量，避免缓存雪崩
      * @param key   键
      * @param value 值
      * @param time  过期时间
      * @param timeUnit  时间单位
      */
     private void set(String key, Object value, Long time, TimeUnit timeUnit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, timeUnit);
+        byteRedisTemplate.opsForValue().set(key, encode(key, value), cacheTtlPolicy.seconds(key, time, timeUnit), TimeUnit.SECONDS);
+    }
+
+    // 查询redis，开启客户端缓存的前缀优先使用本地副本
+    private byte[] get(String key) {
+        return clientSideCache.supports(key) ? clientSideCache.get(key) : byteRedisTemplate.opsForValue().get(key);
+    }
+
+    // 序列化并记录耗时
+    private byte[] encode(String key, Object value) {
+        long begin = System.nanoTime();
+        byte[] bytes = cacheCodecs.encode(value);
+        cacheMetrics.of(key).serialization().recordSince(begin);
+        return bytes;
+    }
+
+    private byte[] encodeWithExpire(String key, Object value, LocalDateTime expireTime, Long delta) {
+        long begin = System.nanoTime();
+        byte[] bytes = cacheCodecs.encodeWithExpire(value, expireTime, delta);
+        cacheMetrics.of(key).serialization().recordSince(begin);
+        return bytes;
+    }
+
+    // 反序列化并记录耗时
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        long begin = System.nanoTime();
+        R r = cacheCodecs.decode(bytes, type);
+        cacheMetrics.of(key).serialization().recordSince(begin);
+        return r;
+    }
+
+    private RedisData decodeWithExpire(String key, byte[] bytes, Class<?> type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        long begin = System.nanoTime();
+        RedisData redisData = cacheCodecs.decodeWithExpire(bytes, type);
+        cacheMetrics.of(key).serialization().recordSince(begin);
+        return redisData;
+    }
+
+    // 查询数据库，布隆过滤器遗漏的id在查到数据后补充到过滤器中
+    private <R, ID> R loadFromDb(String keyPrefix, ID id, Function<ID, R> dbFallback) {
+        R r = loadFromDb(keyPrefix, () -> dbFallback.apply(id));
+        if (r != null) {
+            cacheBloomFilters.confirm(keyPrefix, id);
+        }
+        return r;
+    }
+
+    // 查询数据库，限制同一前缀查询数据库的并发数并记录耗时
+    private <T> T loadFromDb(String keyPrefix, Supplier<T> loader) {
+        return cacheFallbackLimiter.execute(keyPrefix, () -> {
+            long begin = System.nanoTime();
+            try {
+                return loader.get();
+            } finally {
+                cacheMetrics.of(keyPrefix).dbFallback().recordSince(begin);
+            }
+        });
+    }
+
+    /**
+     * 向缓存中写入空值，避免缓存穿透
+     * @param key 键
+     */
+    private void setNull(String key) {
+        byteRedisTemplate.opsForValue().set(key, cacheCodecs.empty(), cacheTtlPolicy.seconds(key, CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.SECONDS);
     }
 
     /**
@@ -46,14 +166,44 @@ public class CacheClient {
      * @param timeUnit  时间单位
      */
     private void setWithLogicalExpire(String key, Object value, Long time, TimeUnit timeUnit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(timeUnit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData), time, timeUnit);
+        long seconds = cacheTtlPolicy.seconds(key, time, timeUnit);
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(seconds);
+        byteRedisTemplate.opsForValue().set(key, encodeWithExpire(key, value, expireTime, null), seconds, TimeUnit.SECONDS);
     }
 
     /**
-     * 向缓存中存入空值解决缓存穿透
+     * 通过pipeline批量写入带过期时间和重建耗时的数据（与queryWithRefreshAhead的格式相同），用于缓存预热
+     * @param keyPrefix 业务前缀
+     * @param values id到实体类的映射
+     * @param delta 重建单条数据的耗时（毫秒）
+     * @param time 超时时间
+     * @param timeUnit 时间单位
+     */
+    public <R, ID> void setBatchWithRefreshAhead(String keyPrefix, Map<ID, R> values, long delta, Long time, TimeUnit timeUnit) {
+        byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((id, r) -> {
+                String key = keyPrefix + id;
+                long seconds = cacheTtlPolicy.seconds(key, time, timeUnit);
+                LocalDateTime expireTime = LocalDateTime.now().plusSeconds(seconds);
+                connection.stringCommands().setEx(key.getBytes(StandardCharsets.UTF_8), seconds,
+                        encodeWithExpire(key, r, expireTime, delta));
+            });
+            return null;
+        });
+    }
+
+    /**
+     * 删除缓存，同时通知所有节点删除一级缓存中的副本
+     * @param key 键
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        nearCache.invalidate(key);
+        hotKeyDetector.invalidate(key);
+    }
+
+    /**
+     * 布隆过滤器拦截不存在的id，并向缓存中存入空值解决缓存穿透
      * @param keyPrefix 业务前缀
      * @param id 具体业务id
      * @param type 要查询的实体类
@@ -68,37 +218,156 @@ public class CacheClient {
 
         String key = keyPrefix + id;
 
-        // 1.从redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 布隆过滤器判断id一定不存在，直接返回，不访问redis和数据库
+        if (!cacheBloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
+
+        // 1.从一级缓存中查询数据
+        R local = nearCache.get(key, type);
+        if (local != null) {
+            cacheMetrics.of(keyPrefix).nearHit();
+            return local;
+        }
+
+        // 2.从redis中查询数据，热点key优先使用本地副本
+        byte[] bytes = hotKeyDetector.read(key, () -> get(key));
 
-        // 2.判断redis中是否存在数据
-        if (StrUtil.isNotBlank(json)) {
-            // redis中存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 3.判断redis中是否存在数据
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
+            // redis中存在，写入一级缓存后返回
+            cacheMetrics.of(keyPrefix).hit();
+            nearCache.put(key, cached);
+            return cached;
         }
 
-        if (json != null) {
+        if (bytes != null && bytes.length == 0) {
             // 缓存中存在空值
+            cacheMetrics.of(keyPrefix).nullHit();
             return null;
         }
+        cacheMetrics.of(keyPrefix).miss();
 
-        // 3.不存在，查询数据库
-        R r = dbFallback.apply(id);
+        // 4.不存在或数据格式已经不兼容，查询数据库（限制同一前缀查询数据库的并发数）
+        R r = loadFromDb(keyPrefix, id, dbFallback);
         if (r == null) {
-            // 数据库中不存在，向缓存中写入空值，避免缓存穿透
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            // 数据库中不存在（布隆过滤器误判），向缓存中写入空值，避免缓存穿透
+            setNull(key);
             return null;
         }
 
-        // 4.数据库中存在，将数据写入redis
+        // 5.数据库中存在，将数据写入redis和一级缓存
         this.set(key, r, time, timeUnit);
+        nearCache.put(key, r);
 
-        // 5.返回数据
+        // 6.返回数据
         return r;
     }
 
     /**
-     * 利用互斥锁解决缓存击穿
+     * 批量查询，一次MGET查询redis，未命中的id合并为一次数据库查询，再通过pipeline批量写回redis
+     * @param keyPrefix 业务前缀
+     * @param ids 具体业务id集合
+     * @param type 要查询的实体类
+     * @param dbFallback 根据id集合批量查询数据库的函数，返回id到实体类的映射
+     * @param time 超时时间
+     * @param timeUnit 时间单位
+     * @param <R> 实体类
+     * @param <ID> id
+     * @return 按照ids的顺序排列的id到实体类的映射，不存在的id不会出现在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<Collection<ID>, Map<ID, R>> dbFallback, Long time, TimeUnit timeUnit) {
+        Map<ID, R> found = new HashMap<>(ids.size());
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+
+        // 1.去重，过滤掉布隆过滤器判断一定不存在的id，并从一级缓存中查询数据
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!cacheBloomFilters.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            R local = nearCache.get(key, type);
+            if (local != null) {
+                metrics.nearHit();
+                found.put(id, local);
+                continue;
+            }
+            // 热点key优先使用本地副本
+            byte[] replica = hotKeyDetector.get(key, key);
+            R r = decode(key, replica, type);
+            if (r != null) {
+                metrics.hit();
+                found.put(id, r);
+            } else if (replica == null || replica.length > 0) {
+                redisIds.add(id);
+            } else {
+                metrics.nullHit();
+            }
+        }
+
+        // 2.一次MGET从redis中查询剩余的数据
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            List<String> keys = new ArrayList<>(redisIds.size());
+            redisIds.forEach(id -> keys.add(keyPrefix + id));
+            List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < redisIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                hotKeyDetector.put(keys.get(i), keys.get(i), bytes);
+                R r = decode(keyPrefix, bytes, type);
+                if (r != null) {
+                    // redis中存在，写入一级缓存
+                    metrics.hit();
+                    nearCache.put(keys.get(i), r);
+                    found.put(redisIds.get(i), r);
+                } else if (bytes == null || bytes.length > 0) {
+                    // redis中不存在或数据格式已经不兼容，需要查询数据库；空值直接跳过
+                    metrics.miss();
+                    missIds.add(redisIds.get(i));
+                } else {
+                    metrics.nullHit();
+                }
+            }
+        }
+
+        // 3.未命中的id合并为一次数据库查询，并通过pipeline批量写回redis
+        if (!missIds.isEmpty()) {
+            Map<ID, R> dbResult = loadFromDb(keyPrefix, () -> dbFallback.apply(missIds));
+            byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : missIds) {
+                    String key = keyPrefix + id;
+                    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    R r = dbResult == null ? null : dbResult.get(id);
+                    if (r == null) {
+                        // 数据库中不存在，向缓存中写入空值，避免缓存穿透
+                        connection.stringCommands().setEx(rawKey, cacheTtlPolicy.seconds(key, CACHE_NULL_TTL, TimeUnit.MINUTES), cacheCodecs.empty());
+                    } else {
+                        connection.stringCommands().setEx(rawKey, cacheTtlPolicy.seconds(key, time, timeUnit), encode(key, r));
+                        cacheBloomFilters.confirm(keyPrefix, id);
+                        found.put(id, r);
+                    }
+                }
+                return null;
+            });
+            missIds.forEach(id -> nearCache.put(keyPrefix + id, found.get(id)));
+        }
+
+        // 4.按照传入的顺序返回结果
+        Map<ID, R> result = new LinkedHashMap<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 利用互斥锁解决缓存击穿，同一节点内的并发请求先在本地合并，只有一个线程竞争redis互斥锁
      * @param keyPrefix 业务前缀
      * @param id 具体业务id
      * @param type 要查询的实体类
@@ -112,58 +381,218 @@ public class CacheClient {
     public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
         String key = keyPrefix + id;
 
-        // 1.从redis中查询数据
-        String json = stringRedisTemplate.opsForValue().get(key);
+        // 布隆过滤器判断id一定不存在，直接返回，不访问redis和数据库
+        if (!cacheBloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
+
+        // 1.从一级缓存中查询数据
+        R local = nearCache.get(key, type);
+        if (local != null) {
+            cacheMetrics.of(keyPrefix).nearHit();
+            return local;
+        }
+
+        // 2.从redis中查询数据，热点key优先使用本地副本
+        byte[] bytes = hotKeyDetector.read(key, () -> get(key));
 
-        // 2.判断redis中是否存在数据
-        if (StrUtil.isNotBlank(json)) {
-            // redis中存在，直接返回
-            return JSONUtil.toBean(json, type);
+        // 3.判断redis中是否存在数据
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
+            // redis中存在，写入一级缓存后返回
+            cacheMetrics.of(keyPrefix).hit();
+            nearCache.put(key, cached);
+            return cached;
         }
 
-        if (json != null) {
+        if (bytes != null && bytes.length == 0) {
             // 缓存中存在空值
+            cacheMetrics.of(keyPrefix).nullHit();
             return null;
         }
+        cacheMetrics.of(keyPrefix).miss();
+
+        // 4.不存在，开始缓存重建
+        // 同一节点内对同一个key的并发请求合并为一次，只有leader去竞争互斥锁，其余线程等待leader的结果
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, id, type, b -> decode(key, b, type), i -> {
+            R r = loadFromDb(keyPrefix, i, dbFallback);
+            if (r == null) {
+                // 数据库中不存在，向缓存中写入空值，避免缓存穿透
+                setNull(key);
+            } else {
+                this.set(key, r, time, timeUnit);
+            }
+            return r;
+        }));
+    }
 
-        // 3.不存在，查询数据库，开始缓存重建
+    /**
+     * 获取互斥锁后查询数据库重建缓存，获取互斥锁失败说明其他节点正在重建，等待后重新查询redis
+     * @param reader 从redis的数据中解析出实体类，无法解析时返回null
+     * @param loader 查询数据库并写入redis的函数
+     */
+    private <R, ID> R rebuildWithMutex(String key, ID id, Class<R> type, Function<byte[], R> reader, Function<ID, R> loader) {
         String lockKey = "LOCK_" + type.getSimpleName().toUpperCase() + "_KEY_" + id;
+        byte[] bytes;
         R r;
+        long begin = System.nanoTime();
         try {
-            // 3.1 获取互斥锁
-            boolean lock = tryLock(lockKey);
-
-            // 3.2 判断获取互斥锁是否成功
-            if (!lock) {
-                // 获取互斥锁失败，线程休眠一会儿
+            // 4.1 获取互斥锁
+            while (!tryLock(lockKey)) {
+                // 4.2 获取互斥锁失败，线程休眠一会儿后重新查询redis
                 Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, timeUnit);
+                bytes = byteRedisTemplate.opsForValue().get(key);
+                r = reader.apply(bytes);
+                if (r != null) {
+                    nearCache.put(key, r);
+                    return r;
+                }
+                if (bytes != null && bytes.length == 0) {
+                    return null;
+                }
             }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            // 记录等待互斥锁（或等待其他节点重建完成）的时间
+            cacheMetrics.of(key).mutexWait().recordSince(begin);
+        }
 
-            // 3.3 成功获取到互斥锁，查询数据库，重建缓存
+        try {
+            // 4.3 成功获取到互斥锁，查询数据库，重建缓存
             // 重新检查redis中是否存在数据，防止重复更新缓存
-            json = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(json)) {
-                // redis中存在，直接返回
-                return JSONUtil.toBean(json, type);
+            r = reader.apply(byteRedisTemplate.opsForValue().get(key));
+            if (r != null) {
+                // redis中存在，写入一级缓存后返回
+                nearCache.put(key, r);
+                return r;
             }
 
-            r = dbFallback.apply(id);
-            if (r == null) {
-                // 数据库中不存在，向缓存中写入空值，避免缓存穿透
-                this.set(key, "", CACHE_NULL_TTL, timeUnit);
-                return null;
+            // 查询数据库并写入redis，数据库中存在时写入一级缓存
+            r = loader.apply(id);
+            if (r != null) {
+                nearCache.put(key, r);
             }
-
-            // 数据库中存在，将数据写入redis
-            this.set(key, r, time, timeUnit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
         } finally {
-            // 3.4 释放互斥锁，保证互斥锁在任何时候都能够释放
+            // 4.4 释放互斥锁，保证互斥锁在任何时候都能够释放
             unLock(lockKey);
         }
-        // 5.返回商铺数据
+        // 5.返回数据
+        return r;
+    }
+
+    /**
+     * 以hash结构缓存实体类的每个字段，只查询需要的字段（HMGET），缓存不存在时查询数据库并写入所有字段
+     * @param keyPrefix 业务前缀
+     * @param id 具体业务id
+     * @param type 要查询的实体类
+     * @param fields 要查询的字段名
+     * @param dbFallback 查询数据库的函数
+     * @param time 超时时间
+     * @param timeUnit 时间单位
+     * @param <R> 实体类
+     * @param <ID> id
+     * @return 只包含指定字段的实体类
+     */
+    public <R, ID> R queryFields(String keyPrefix, ID id, Class<R> type, List<String> fields, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(keyPrefix);
+
+        // 布隆过滤器判断id一定不存在，直接返回；hash前缀通过CacheBloomFilters.alias使用实体前缀的过滤器
+        if (!cacheBloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
+
+        // 1.从redis中查询指定字段，同时查询标记字段判断缓存是否存在
+        List<Object> hashKeys = new ArrayList<>(fields.size() + 1);
+        hashKeys.add(HASH_FLAG_FIELD);
+        hashKeys.addAll(fields);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, hashKeys);
+        Object flag = values.get(0);
+        if (flag != null) {
+            if ("".equals(flag)) {
+                // 缓存中存在空值
+                metrics.nullHit();
+                return null;
+            }
+            metrics.hit();
+            Map<String, Object> hash = new HashMap<>(hashKeys.size());
+            for (int i = 1; i < hashKeys.size(); i++) {
+                hash.put((String) hashKeys.get(i), values.get(i));
+            }
+            return fromHash(key, hash, type);
+        }
+
+        // 2.不存在，查询数据库并写入所有字段，同一节点内合并同一个key的重建
+        metrics.miss();
+        R r = singleFlight.execute(key, () -> {
+            R loaded = loadFromDb(keyPrefix, id, dbFallback);
+            setHash(key, loaded, time, timeUnit);
+            return loaded;
+        });
+        if (r == null) {
+            return null;
+        }
+
+        // 3.只返回指定字段
+        Map<String, Object> hash = new HashMap<>(toHash(key, r));
+        hash.keySet().retainAll(fields);
+        return fromHash(key, hash, type);
+    }
+
+    /**
+     * 只更新hash结构缓存中变化的字段，缓存不存在或是空值标记时不做任何操作，下次查询时从数据库加载所有字段
+     * @param key 键
+     * @param value 变化的字段，值为null的字段不更新
+     * @return 缓存是否存在
+     */
+    public boolean patchFields(String key, Object value) {
+        Map<String, String> hash = toHash(key, value);
+        if (hash.isEmpty()) {
+            return false;
+        }
+        List<String> args = new ArrayList<>(hash.size() * 2);
+        hash.forEach((field, fieldValue) -> {
+            args.add(field);
+            args.add(fieldValue);
+        });
+        Long result = redisScripts.execute(RedisScripts.HASH_PATCH, Collections.singletonList(key), args.toArray());
+        return result != null && result == 1;
+    }
+
+    // 在事务中删除旧的hash后写入所有字段，读取方不会读到一半的数据；数据不存在时只写入标记字段
+    private void setHash(String key, Object value, Long time, TimeUnit timeUnit) {
+        Map<String, String> hash = value == null ? new HashMap<>() : new HashMap<>(toHash(key, value));
+        hash.put(HASH_FLAG_FIELD, value == null ? "" : "1");
+        long seconds = value == null
+                ? cacheTtlPolicy.seconds(key, CACHE_NULL_TTL, TimeUnit.MINUTES)
+                : cacheTtlPolicy.seconds(key, time, timeUnit);
+        stringRedisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                operations.multi();
+                operations.delete((K) key);
+                operations.opsForHash().putAll((K) key, hash);
+                operations.expire((K) key, seconds, TimeUnit.SECONDS);
+                return operations.exec();
+            }
+        });
+    }
+
+    // 实体类转换为字段名和字符串值，忽略值为null的字段
+    private Map<String, String> toHash(String key, Object value) {
+        long begin = System.nanoTime();
+        Map<String, String> hash = new LinkedHashMap<>();
+        BeanUtil.beanToMap(value, false, true).forEach((field, fieldValue) -> hash.put(field, Convert.toStr(fieldValue)));
+        cacheMetrics.of(key).serialization().recordSince(begin);
+        return hash;
+    }
+
+    private <R> R fromHash(String key, Map<String, Object> hash, Class<R> type) {
+        long begin = System.nanoTime();
+        R r = BeanUtil.toBean(hash, type, CopyOptions.create().setIgnoreNullValue(true).setIgnoreError(true));
+        cacheMetrics.of(key).serialization().recordSince(begin);
         return r;
     }
 
@@ -177,8 +606,117 @@ public class CacheClient {
         stringRedisTemplate.delete(key);
     }
 
-    // 缓存重建线程池
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 提前刷新缓存，避免热点key在过期时刻集中重建
+     * 缓存中记录重建耗时delta，每次读取时按XFetch算法判断：now - delta * beta * ln(random) >= 过期时间，
+     * 越接近过期时间、重建越慢，触发提前刷新的概率越大，触发后异步重建，当前请求直接返回缓存中的数据。
+     * 缓存真正过期（没有访问）后按互斥锁的方式同步重建
+     * @param keyPrefix 业务前缀
+     * @param id 具体业务id
+     * @param type 要查询的实体类
+     * @param dbFallback 查询数据库的函数
+     * @param time 超时时间
+     * @param timeUnit 时间单位
+     * @param <R> 实体类
+     * @param <ID> id
+     * @return 实体类
+     */
+    public <R, ID> R queryWithRefreshAhead(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+
+        // 布隆过滤器判断id一定不存在，直接返回，不访问redis和数据库
+        if (!cacheBloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
+
+        // 1.从一级缓存中查询数据
+        R local = nearCache.get(key, type);
+        if (local != null) {
+            cacheMetrics.of(keyPrefix).nearHit();
+            return local;
+        }
+
+        // 2.从redis中查询数据，热点key优先使用本地副本
+        byte[] bytes = hotKeyDetector.read(key, () -> get(key));
+        if (bytes != null && bytes.length == 0) {
+            // 缓存中存在空值
+            cacheMetrics.of(keyPrefix).nullHit();
+            return null;
+        }
+
+        // 3.redis中存在数据，判断是否需要提前刷新
+        RedisData redisData = decodeWithExpire(key, bytes, type);
+        if (redisData != null) {
+            cacheMetrics.of(keyPrefix).hit();
+            R r = type.cast(redisData.getData());
+            if (shouldRefreshAhead(redisData)) {
+                refreshAhead(keyPrefix, id, type, dbFallback, time, timeUnit);
+            }
+            nearCache.put(key, r);
+            return r;
+        }
+
+        // 其他缓存策略（如批量查询）写入的数据没有记录重建耗时，直接返回，过期后按提前刷新的格式重建
+        R cached = decode(key, bytes, type);
+        if (cached != null) {
+            cacheMetrics.of(keyPrefix).hit();
+            nearCache.put(key, cached);
+            return cached;
+        }
+
+        // 4.不存在或数据格式不兼容，同步重建缓存
+        cacheMetrics.of(keyPrefix).miss();
+        Function<byte[], R> reader = b -> {
+            RedisData data = decodeWithExpire(key, b, type);
+            return data == null ? null : type.cast(data.getData());
+        };
+        return singleFlight.execute(key, () -> rebuildWithMutex(key, id, type, reader,
+                i -> loadWithRefreshAhead(keyPrefix, i, dbFallback, time, timeUnit)));
+    }
+
+    // XFetch算法的beta，大于1时更倾向于提前刷新
+    @Value("${comment.cache.refresh-ahead.beta:1.0}")
+    private double refreshAheadBeta;
+
+    private boolean shouldRefreshAhead(RedisData redisData) {
+        if (redisData.getDelta() == null) {
+            return false;
+        }
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        // 1 - nextDouble()的范围是(0, 1]，ln结果小于等于0
+        double gap = -redisData.getDelta() * refreshAheadBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return System.currentTimeMillis() + gap >= expireAt;
+    }
+
+    // 异步刷新缓存，同一个key同一时刻只有一个节点的一个线程在刷新
+    private <R, ID> void refreshAhead(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        cacheRebuildExecutor.submit(keyPrefix + id, () -> {
+            String lockKey = "LOCK_" + type.getSimpleName().toUpperCase() + "_KEY_" + id;
+            if (tryLock(lockKey)) {
+                try {
+                    loadWithRefreshAhead(keyPrefix, id, dbFallback, time, timeUnit);
+                } finally {
+                    unLock(lockKey);
+                }
+            }
+        });
+    }
+
+    // 查询数据库并记录耗时，连同过期时间一起写入redis，redis中的过期时间与数据中的过期时间相同
+    private <R, ID> R loadWithRefreshAhead(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
+        long begin = System.currentTimeMillis();
+        R r = loadFromDb(keyPrefix, id, dbFallback);
+        if (r == null) {
+            setNull(key);
+            return null;
+        }
+        long delta = System.currentTimeMillis() - begin;
+        long seconds = cacheTtlPolicy.seconds(key, time, timeUnit);
+        LocalDateTime expireTime = LocalDateTime.now().plusSeconds(seconds);
+        byteRedisTemplate.opsForValue().set(key, encodeWithExpire(key, r, expireTime, delta), seconds, TimeUnit.SECONDS);
+        return r;
+    }
 
     /**
      * 利用逻辑过期解决缓存击穿
@@ -195,58 +733,74 @@ public class CacheClient {
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
         String key = keyPrefix + id;
 
-        // 1.从redis中查询数据
-        String redisDataJson = stringRedisTemplate.opsForValue().get(key);
+        // 1.从一级缓存中查询数据，一级缓存中只存放未逻辑过期的数据
+        R local = nearCache.get(key, type);
+        if (local != null) {
+            cacheMetrics.of(keyPrefix).nearHit();
+            return local;
+        }
 
-        // 2.判断redis中是否存在数据
-        if (redisDataJson == null) {
+        // 2.从redis中查询数据，热点key优先使用本地副本
+        byte[] bytes = hotKeyDetector.read(key, () -> get(key));
+
+        // 3.判断redis中是否存在数据
+        if (bytes == null) {
             // redis中不存在，直接返回
+            cacheMetrics.of(keyPrefix).miss();
             return null;
         }
 
-        // 3.存在
-        // 3.1 判断缓存是否过期
-        RedisData redisData = JSONUtil.toBean(redisDataJson, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-            // 未过期，直接返回
+        // 4.存在
+        // 4.1 判断缓存是否过期，数据格式不兼容时当作已过期处理
+        RedisData redisData = decodeWithExpire(key, bytes, type);
+        R r = redisData == null ? null : type.cast(redisData.getData());
+        LocalDateTime now = LocalDateTime.now();
+        if (redisData != null && redisData.getExpireTime().isAfter(now)) {
+            // 未过期，写入一级缓存后返回，本地副本在逻辑过期时间之前失效，过期后由redis中的数据触发重建
+            cacheMetrics.of(keyPrefix).hit();
+            nearCache.put(key, r, Duration.between(now, redisData.getExpireTime()).toMillis());
             return r;
         }
 
-        // 已过期
-        // 3.2 尝试获取互斥锁
-        String lockKey = "LOCK_" + type.getSimpleName().toUpperCase() + "_KEY_" + id;;
+        // 已过期，返回过期数据也算作未命中
+        cacheMetrics.of(keyPrefix).miss();
+        // 4.2 尝试获取互斥锁
+        String lockKey = "LOCK_" + type.getSimpleName().toUpperCase() + "_KEY_" + id;
         boolean lock = tryLock(lockKey);
 
         if (lock) {
             // 成功获取互斥锁
             // 重新检查缓存是否过期，防止重复更新缓存
-            redisDataJson = stringRedisTemplate.opsForValue().get(key);
-            redisData = JSONUtil.toBean(redisDataJson, RedisData.class);
-            if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            redisData = decodeWithExpire(key, byteRedisTemplate.opsForValue().get(key), type);
+            if (redisData != null && redisData.getExpireTime().isAfter(LocalDateTime.now())) {
                 // 缓存已经更新，直接返回
-                return JSONUtil.toBean((JSONObject) redisData.getData(), type);
+                unLock(lockKey);
+                return type.cast(redisData.getData());
             }
 
-            // 3.3 开启独立线程更新缓存数据
-            try {
-                CACHE_REBUILD_EXECUTOR.submit(() -> this.save(key, id, dbFallback, time, timeUnit));
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                // 释放锁
+            // 4.3 开启独立线程更新缓存数据，重建完成后才释放锁，避免其他节点重复重建
+            boolean submitted = cacheRebuildExecutor.submit(key, () -> {
+                try {
+                    this.save(keyPrefix, id, dbFallback, time, timeUnit);
+                } finally {
+                    unLock(lockKey);
+                }
+            });
+            if (!submitted) {
+                // 本节点已有重建任务或队列已满，释放锁
                 unLock(lockKey);
             }
         }
 
-        // 4.返回过期数据
+        // 5.返回过期数据
         return r;
     }
 
     // 提前将数据导入redis，模拟缓存击穿
-    private <R, ID> void save(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+    private <R, ID> void save(String keyPrefix, ID id, Function<ID, R> dbFallback, Long time, TimeUnit timeUnit) {
+        String key = keyPrefix + id;
         // 1.查询店铺数据
-        R r = dbFallback.apply(id);
+        R r = loadFromDb(keyPrefix, id, dbFallback);
 
         // 2.封装逻辑过期时间
         // 3.写入redis
@@ -0,0 +1,43 @@
+package org.comment.utils;
+
+/**
+ * 缓存值的序列化方式
+ * 每种序列化方式用序列化结果的第一个字节区分，读取时根据该字节选择对应的实现，
+ * 因此切换序列化方式期间新旧两种格式的数据都能正常读取
+ */
+public interface CacheCodec {
+
+    /**
+     * @return 序列化方式的名称，对应配置项comment.cache.codec
+     */
+    String name();
+
+    /**
+     * 判断是否能序列化该类型
+     * @param type 实体类
+     * @return true代表支持
+     */
+    boolean supports(Class<?> type);
+
+    /**
+     * 判断数据是否由当前序列化方式写入
+     * @param bytes 缓存中的数据，长度大于0
+     * @return true代表可以反序列化
+     */
+    boolean canDecode(byte[] bytes);
+
+    /**
+     * 序列化
+     * @param value 要缓存的对象
+     * @return 序列化结果
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 反序列化
+     * @param bytes 缓存中的数据
+     * @param type 实体类
+     * @return 实体类，数据与当前的类结构不兼容时返回null
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+}
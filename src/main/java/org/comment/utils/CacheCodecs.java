@@ -0,0 +1,255 @@
+package org.comment.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 缓存序列化入口
+ * 写入时使用配置项comment.cache.codec指定的序列化方式（该方式不支持的类型使用JSON），
+ * 读取时根据数据的第一个字节选择序列化方式，因此新旧格式可以同时存在。
+ * 序列化结果超过阈值时由CacheCompressor压缩，读取时先解压
+ */
+@Slf4j
+@Component
+public class CacheCodecs {
+
+    // 逻辑过期数据的格式标识：格式标识(1字节) + 逻辑过期时间戳(8字节) + 序列化后的数据
+    public static final byte LOGICAL_EXPIRE_FORMAT = 0x02;
+
+    // 提前刷新数据的格式标识：格式标识(1字节) + 过期时间戳(8字节) + 重建耗时(8字节) + 序列化后的数据
+    public static final byte REFRESH_AHEAD_FORMAT = 0x03;
+
+    // 列表的格式标识：格式标识(1字节) + 元素个数(4字节) + 每个元素的长度(4字节)和序列化后的数据
+    public static final byte LIST_FORMAT = 0x04;
+
+    // 缓存空值
+    private static final byte[] EMPTY = new byte[0];
+
+    @Resource
+    private List<CacheCodec> codecs;
+
+    @Resource
+    private JsonCacheCodec jsonCacheCodec;
+
+    @Resource
+    private CacheCompressor cacheCompressor;
+
+    // 写入时使用的序列化方式
+    @Value("${comment.cache.codec:json}")
+    private String codecName;
+
+    private CacheCodec writeCodec;
+
+    @PostConstruct
+    public void init() {
+        writeCodec = codecs.stream()
+                .filter(codec -> codec.name().equals(codecName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("不存在的缓存序列化方式：" + codecName));
+    }
+
+    /**
+     * @return 缓存空值，用于解决缓存穿透
+     */
+    public byte[] empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 序列化
+     * @param value 要缓存的对象
+     * @return 序列化结果
+     */
+    public byte[] encode(Object value) {
+        return cacheCompressor.compress(codecFor(value.getClass()).encode(value));
+    }
+
+    /**
+     * 反序列化，带过期时间的数据只返回其中的实体类，因此不同的缓存策略可以共用同一个key
+     * @param bytes 缓存中的数据
+     * @param type 实体类
+     * @return 实体类，数据为空或无法识别时返回null
+     */
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        bytes = cacheCompressor.decompress(bytes);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == LOGICAL_EXPIRE_FORMAT || bytes[0] == REFRESH_AHEAD_FORMAT) {
+            RedisData redisData = decodeWithExpire(bytes, type);
+            return redisData == null ? null : type.cast(redisData.getData());
+        }
+        if (bytes[0] == '{') {
+            JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+            if (json.containsKey("expireTime") && json.containsKey("data")) {
+                json = json.getJSONObject("data");
+            }
+            return json.toBean(type);
+        }
+        for (CacheCodec codec : codecs) {
+            if (codec.canDecode(bytes)) {
+                return codec.decode(bytes, type);
+            }
+        }
+        log.warn("无法识别的缓存数据格式，type = {}", type.getName());
+        return null;
+    }
+
+    /**
+     * 序列化列表，每个元素单独使用写入的序列化方式，整个列表一起压缩
+     * @param values 要缓存的列表
+     * @return 序列化结果
+     */
+    public byte[] encodeList(List<?> values) {
+        List<byte[]> elements = new ArrayList<>(values.size());
+        int length = 5;
+        for (Object value : values) {
+            byte[] element = codecFor(value.getClass()).encode(value);
+            elements.add(element);
+            length += 4 + element.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(LIST_FORMAT).putInt(elements.size());
+        elements.forEach(element -> buffer.putInt(element.length).put(element));
+        return cacheCompressor.compress(buffer.array());
+    }
+
+    /**
+     * 反序列化列表，兼容JSON数组
+     * @param bytes 缓存中的数据
+     * @param type 元素的类型
+     * @return 列表，数据为空或任意一个元素无法识别时返回null
+     */
+    public <T> List<T> decodeList(byte[] bytes, Class<T> type) {
+        bytes = cacheCompressor.decompress(bytes);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] == '[') {
+            return JSONUtil.toList(new String(bytes, StandardCharsets.UTF_8), type);
+        }
+        if (bytes[0] != LIST_FORMAT) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        int size = buffer.getInt();
+        List<T> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            byte[] element = new byte[buffer.getInt()];
+            buffer.get(element);
+            T value = decode(element, type);
+            if (value == null) {
+                return null;
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * 序列化带逻辑过期时间的数据
+     * 写入JSON时保持原来RedisData的格式，其他序列化方式使用二进制的包装格式
+     * @param value 要缓存的对象
+     * @param expireTime 逻辑过期时间
+     * @return 序列化结果
+     */
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime) {
+        return encodeWithExpire(value, expireTime, null);
+    }
+
+    /**
+     * 序列化带过期时间和重建耗时的数据
+     * @param value 要缓存的对象
+     * @param expireTime 过期时间
+     * @param delta 重建缓存的耗时（毫秒），为空时与逻辑过期的格式相同
+     * @return 序列化结果
+     */
+    public byte[] encodeWithExpire(Object value, LocalDateTime expireTime, Long delta) {
+        CacheCodec codec = codecFor(value.getClass());
+        if (codec == jsonCacheCodec) {
+            RedisData redisData = new RedisData();
+            redisData.setData(value);
+            redisData.setExpireTime(expireTime);
+            redisData.setDelta(delta);
+            return cacheCompressor.compress(jsonCacheCodec.encode(redisData));
+        }
+        byte[] data = codec.encode(value);
+        int header = delta == null ? 9 : 17;
+        byte[] bytes = new byte[header + data.length];
+        bytes[0] = delta == null ? LOGICAL_EXPIRE_FORMAT : REFRESH_AHEAD_FORMAT;
+        writeLong(bytes, 1, expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        if (delta != null) {
+            writeLong(bytes, 9, delta);
+        }
+        System.arraycopy(data, 0, bytes, header, data.length);
+        return cacheCompressor.compress(bytes);
+    }
+
+    /**
+     * 反序列化带逻辑过期时间的数据，JSON格式只解析一次
+     * @param bytes 缓存中的数据
+     * @param type 实体类
+     * @return 逻辑过期时间和实体类，数据为空或无法识别时返回null
+     */
+    public <T> RedisData decodeWithExpire(byte[] bytes, Class<T> type) {
+        bytes = cacheCompressor.decompress(bytes);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        RedisData redisData = new RedisData();
+        if (bytes[0] == LOGICAL_EXPIRE_FORMAT || bytes[0] == REFRESH_AHEAD_FORMAT) {
+            int header = bytes[0] == LOGICAL_EXPIRE_FORMAT ? 9 : 17;
+            if (bytes.length <= header) {
+                return null;
+            }
+            long millis = readLong(bytes, 1);
+            redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()));
+            if (bytes[0] == REFRESH_AHEAD_FORMAT) {
+                redisData.setDelta(readLong(bytes, 9));
+            }
+            redisData.setData(decode(Arrays.copyOfRange(bytes, header, bytes.length), type));
+        } else if (jsonCacheCodec.canDecode(bytes)) {
+            JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+            redisData.setExpireTime(json.get("expireTime", LocalDateTime.class));
+            redisData.setDelta(json.getLong("delta"));
+            JSONObject data = json.getJSONObject("data");
+            redisData.setData(data == null ? null : data.toBean(type));
+        } else {
+            // 不带过期时间的数据
+            return null;
+        }
+        return redisData.getData() == null || redisData.getExpireTime() == null ? null : redisData;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private CacheCodec codecFor(Class<?> type) {
+        return writeCodec.supports(type) ? writeCodec : jsonCacheCodec;
+    }
+}
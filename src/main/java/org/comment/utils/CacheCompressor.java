@@ -0,0 +1,144 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存数据压缩
+ * 序列化后超过阈值的数据使用Deflate（BEST_SPEED）压缩，压缩后没有变小时保留原数据。
+ * 读取时根据第一个字节判断是否压缩，因此压缩和未压缩的数据可以同时存在，开启压缩前所有节点都需要能够读取压缩格式
+ */
+@Slf4j
+@Component
+public class CacheCompressor {
+
+    // 压缩数据的格式标识：格式标识(1字节) + 压缩前的长度(4字节) + Deflate压缩后的数据
+    public static final byte COMPRESSED_FORMAT = 0x05;
+
+    private static final int HEADER = 5;
+
+    @Value("${comment.cache.compression.enabled:false}")
+    private boolean enabled;
+
+    // 序列化后超过该长度（字节）才压缩
+    @Value("${comment.cache.compression.threshold:1024}")
+    private int threshold;
+
+    // 压缩次数
+    private final LongAdder compressed = new LongAdder();
+
+    // 压缩后没有变小而保留原数据的次数
+    private final LongAdder skipped = new LongAdder();
+
+    // 压缩前的总字节数
+    private final LongAdder bytesBefore = new LongAdder();
+
+    // 压缩后的总字节数
+    private final LongAdder bytesAfter = new LongAdder();
+
+    /**
+     * 压缩数据，未开启压缩、数据较小或压缩后没有变小时返回原数据
+     * @param bytes 序列化后的数据
+     * @return 压缩后的数据
+     */
+    public byte[] compress(byte[] bytes) {
+        if (!enabled || bytes.length < threshold) {
+            return bytes;
+        }
+        byte[] result = deflate(bytes);
+        if (result.length >= bytes.length) {
+            skipped.increment();
+            return bytes;
+        }
+        compressed.increment();
+        bytesBefore.add(bytes.length);
+        bytesAfter.add(result.length);
+        return result;
+    }
+
+    /**
+     * 解压数据，未压缩的数据直接返回
+     * @param bytes 缓存中的数据
+     * @return 解压后的数据，数据损坏时返回null
+     */
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes[0] != COMPRESSED_FORMAT) {
+            return bytes;
+        }
+        if (bytes.length <= HEADER) {
+            return null;
+        }
+        int length = ((bytes[1] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16) | ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+        byte[] result = new byte[length];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(bytes, HEADER, bytes.length - HEADER);
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int count = inflater.inflate(result, n, length - n);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += count;
+            }
+            if (n != length) {
+                log.warn("缓存数据解压后的长度不正确，expected = {}，actual = {}", length, n);
+                return null;
+            }
+            return result;
+        } catch (DataFormatException e) {
+            log.warn("缓存数据解压失败", e);
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return 压缩次数和节省的字节数
+     */
+    public Map<String, Object> stats() {
+        long before = bytesBefore.sum();
+        long after = bytesAfter.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("threshold", threshold);
+        stats.put("compressed", compressed.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("bytesBefore", before);
+        stats.put("bytesAfter", after);
+        stats.put("bytesSaved", before - after);
+        stats.put("ratio", before == 0 ? 0 : (double) after / before);
+        return stats;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + HEADER);
+            out.write(COMPRESSED_FORMAT);
+            out.write(bytes.length >>> 24);
+            out.write(bytes.length >>> 16);
+            out.write(bytes.length >>> 8);
+            out.write(bytes.length);
+            byte[] buffer = new byte[Math.min(bytes.length, 8192)];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 限制每个key前缀同时查询数据库的请求数量
+ * 大量缓存同时失效时，超出限制的请求等待一小段时间后直接失败，避免数据库被打垮
+ */
+@Slf4j
+@Component
+public class CacheFallbackLimiter {
+
+    // 每个前缀默认的最大并发数
+    @Value("${comment.cache.fallback.max-concurrent:50}")
+    private int defaultMaxConcurrent;
+
+    // 按前缀配置的最大并发数，格式为 前缀=最大并发数，例如 cache:shop:=20
+    @Value("${comment.cache.fallback.limits:}")
+    private String[] limits;
+
+    // 获取许可的最长等待时间（毫秒）
+    @Value("${comment.cache.fallback.wait-millis:100}")
+    private long waitMillis;
+
+    private final Map<String, Integer> prefixLimits = new ConcurrentHashMap<>();
+
+    private final Map<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> rejected = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String limit : limits) {
+            int eq = limit.lastIndexOf('=');
+            if (eq > 0) {
+                prefixLimits.put(limit.substring(0, eq).trim(), Integer.parseInt(limit.substring(eq + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * 在并发限制内查询数据库
+     * @param keyPrefix 业务前缀
+     * @param loader 查询数据库的函数
+     * @return 查询结果
+     */
+    public <T> T execute(String keyPrefix, Supplier<T> loader) {
+        Semaphore semaphore = semaphores.computeIfAbsent(keyPrefix,
+                prefix -> new Semaphore(prefixLimits.getOrDefault(prefix, defaultMaxConcurrent)));
+        boolean acquired;
+        try {
+            acquired = semaphore.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (!acquired) {
+            rejected.computeIfAbsent(keyPrefix, prefix -> new LongAdder()).increment();
+            log.warn("查询数据库的并发数超出限制，keyPrefix = {}", keyPrefix);
+            throw new RuntimeException("缓存重建繁忙，请稍后重试！");
+        }
+        try {
+            return loader.get();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * @return 每个前缀的剩余许可数和拒绝次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        semaphores.forEach((prefix, semaphore) -> {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("available", semaphore.availablePermits());
+            LongAdder count = rejected.get(prefix);
+            stat.put("rejected", count == null ? 0 : count.sum());
+            stats.put(prefix, stat);
+        });
+        return stats;
+    }
+}
@@ -0,0 +1,163 @@
+package org.comment.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存指标，按key前缀统计命中、未命中、空值命中、回源数据库耗时、序列化耗时和互斥锁等待时间
+ * key按配置的前缀归类（最长匹配），不属于任何前缀的key归入other
+ */
+@Component
+public class CacheMetrics {
+
+    private static final String OTHER = "other";
+
+    // 统计的key前缀
+    @Value("${comment.cache.metrics.prefixes:cache:shop:,cache:shop-hash:,cache:shop-type,cache:user:,cache:blog:,login:token:,feed:}")
+    private String[] prefixes;
+
+    // 按长度倒序排列的前缀，优先匹配最长的前缀
+    private List<String> sortedPrefixes;
+
+    private final Map<String, PrefixMetrics> metrics = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        sortedPrefixes = new ArrayList<>(Arrays.asList(prefixes));
+        sortedPrefixes.sort((a, b) -> b.length() - a.length());
+    }
+
+    /**
+     * 获取key所属前缀的指标
+     * @param key 键或前缀
+     * @return 该前缀的指标
+     */
+    public PrefixMetrics of(String key) {
+        String prefix = OTHER;
+        for (String candidate : sortedPrefixes) {
+            if (key.startsWith(candidate)) {
+                prefix = candidate;
+                break;
+            }
+        }
+        return metrics.computeIfAbsent(prefix, p -> new PrefixMetrics());
+    }
+
+    /**
+     * @return 每个前缀的当前指标
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        metrics.forEach((prefix, prefixMetrics) -> snapshot.put(prefix, prefixMetrics.toMap()));
+        return snapshot;
+    }
+
+    /**
+     * 清空所有指标
+     */
+    public void reset() {
+        metrics.clear();
+    }
+
+    public static class PrefixMetrics {
+        // 一级缓存（进程内）命中
+        private final LongAdder nearHits = new LongAdder();
+        // redis命中
+        private final LongAdder hits = new LongAdder();
+        // 命中缓存的空值
+        private final LongAdder nullHits = new LongAdder();
+        // 未命中
+        private final LongAdder misses = new LongAdder();
+        private final Timer dbFallback = new Timer();
+        private final Timer serialization = new Timer();
+        private final Timer mutexWait = new Timer();
+
+        public void nearHit() {
+            nearHits.increment();
+        }
+
+        public void hit() {
+            hits.increment();
+        }
+
+        public void nullHit() {
+            nullHits.increment();
+        }
+
+        public void miss() {
+            misses.increment();
+        }
+
+        public Timer dbFallback() {
+            return dbFallback;
+        }
+
+        public Timer serialization() {
+            return serialization;
+        }
+
+        public Timer mutexWait() {
+            return mutexWait;
+        }
+
+        private Map<String, Object> toMap() {
+            long near = nearHits.sum();
+            long hit = hits.sum();
+            long nullHit = nullHits.sum();
+            long miss = misses.sum();
+            long total = near + hit + nullHit + miss;
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("nearHits", near);
+            map.put("hits", hit);
+            map.put("nullHits", nullHit);
+            map.put("misses", miss);
+            map.put("hitRatio", total == 0 ? 0 : (double) (near + hit + nullHit) / total);
+            map.put("dbFallback", dbFallback.toMap());
+            map.put("serialization", serialization.toMap());
+            map.put("mutexWait", mutexWait.toMap());
+            return map;
+        }
+    }
+
+    /**
+     * 耗时统计：次数、平均耗时和最大耗时
+     */
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        /**
+         * 记录一次耗时
+         * @param nanos 耗时（纳秒）
+         */
+        public void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        /**
+         * 从开始时间记录到当前时间的耗时
+         * @param beginNanos 开始时间，System.nanoTime()
+         */
+        public void recordSince(long beginNanos) {
+            record(System.nanoTime() - beginNanos);
+        }
+
+        Map<String, Object> toMap() {
+            long n = count.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", n);
+            map.put("avgMillis", n == 0 ? 0 : totalNanos.sum() / n / 1_000_000.0);
+            map.put("maxMillis", maxNanos.get() / 1_000_000.0);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池
+ * 同一个key同一时刻只有一个重建任务在排队或执行，队列有界，队列满时直接丢弃任务（调用方继续返回旧数据，下次访问时重试）
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    @Value("${comment.cache.rebuild.pool-size:10}")
+    private int poolSize;
+
+    @Value("${comment.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+
+    // 正在排队或执行的重建任务对应的key
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder deduplicated = new LongAdder();
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> new Thread(runnable, "cache-rebuild-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 缓存的键，用于合并同一个key的重建任务
+     * @param task 重建任务
+     * @return true代表任务已提交，false代表已有同一个key的任务或队列已满
+     */
+    public boolean submit(String key, Runnable task) {
+        if (!inFlight.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，丢弃重建任务，key = {}", key);
+            return false;
+        }
+    }
+
+    private void run(String key, Runnable task) {
+        long begin = System.nanoTime();
+        try {
+            task.run();
+            completed.increment();
+        } catch (Exception e) {
+            failed.increment();
+            log.error("缓存重建失败，key = {}", key, e);
+        } finally {
+            long nanos = System.nanoTime() - begin;
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * @return 线程池的运行状态
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long finished = completed.sum() + failed.sum();
+        stats.put("activeCount", executor.getActiveCount());
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("inFlight", inFlight.size());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("avgLatencyMs", finished == 0 ? 0 : totalNanos.sum() / finished / 1_000_000.0);
+        stats.put("maxLatencyMs", maxNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("缓存重建线程池未能在10秒内关闭，剩余任务数：{}", executor.shutdownNow().size());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.comment.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存过期时间策略，避免批量写入的key在同一时刻过期（缓存雪崩）
+ * 在原过期时间的基础上增加 [0, 过期时间 * 比例] 的偏移量，偏移方式按key前缀配置：
+ * random：每次写入随机偏移；stagger：按key的哈希值固定偏移，同一个key每次重建的过期时间相同，不同key均匀错开
+ */
+@Slf4j
+@Component
+public class CacheTtlPolicy {
+
+    private static final String RANDOM = "random";
+
+    private static final String STAGGER = "stagger";
+
+    // 未配置前缀时使用的随机偏移比例
+    @Value("${comment.cache.ttl.jitter:0.1}")
+    private double defaultJitter;
+
+    // 按前缀配置的策略，格式为 前缀=偏移方式:比例，例如 cache:shop:=stagger:0.2
+    @Value("${comment.cache.ttl.policies:}")
+    private String[] policies;
+
+    // 前缀 -> 策略，按前缀长度倒序，优先匹配最长的前缀
+    private final Map<String, Policy> prefixPolicies = new LinkedHashMap<>();
+
+    private Policy defaultPolicy;
+
+    @PostConstruct
+    public void init() {
+        defaultPolicy = new Policy(false, defaultJitter);
+        Arrays.stream(policies)
+                .filter(policy -> !policy.trim().isEmpty())
+                .sorted((a, b) -> b.indexOf('=') - a.indexOf('='))
+                .forEach(policy -> {
+                    int eq = policy.indexOf('=');
+                    int colon = policy.lastIndexOf(':');
+                    if (eq <= 0 || colon <= eq) {
+                        throw new IllegalStateException("缓存过期时间策略格式有误：" + policy);
+                    }
+                    String mode = policy.substring(eq + 1, colon).trim();
+                    if (!RANDOM.equals(mode) && !STAGGER.equals(mode)) {
+                        throw new IllegalStateException("不存在的缓存过期时间偏移方式：" + mode);
+                    }
+                    prefixPolicies.put(policy.substring(0, eq).trim(),
+                            new Policy(STAGGER.equals(mode), Double.parseDouble(policy.substring(colon + 1).trim())));
+                });
+        log.info("缓存过期时间策略：默认随机偏移比例 = {}，前缀策略 = {}", defaultJitter, prefixPolicies.keySet());
+    }
+
+    /**
+     * 计算实际的过期时间
+     * @param key 键
+     * @param time 原过期时间
+     * @param timeUnit 时间单位
+     * @return 增加偏移量后的过期时间（秒）
+     */
+    public long seconds(String key, Long time, TimeUnit timeUnit) {
+        long seconds = timeUnit.toSeconds(time);
+        Policy policy = policyOf(key);
+        long bound = (long) (seconds * policy.ratio);
+        if (bound <= 0) {
+            return seconds;
+        }
+        if (policy.stagger) {
+            return seconds + Math.floorMod(MurmurHash.hash32(key), bound + 1);
+        }
+        return seconds + ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private Policy policyOf(String key) {
+        for (Map.Entry<String, Policy> entry : prefixPolicies.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return defaultPolicy;
+    }
+
+    private static class Policy {
+        private final boolean stagger;
+        private final double ratio;
+
+        private Policy(boolean stagger, double ratio) {
+            this.stagger = stagger;
+            this.ratio = ratio;
+        }
+    }
+}
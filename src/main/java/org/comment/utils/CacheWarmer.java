@@ -0,0 +1,263 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.comment.entity.SecKillVoucher;
+import org.comment.entity.Shop;
+import org.comment.entity.ShopType;
+import org.comment.service.ISecKillVoucherService;
+import org.comment.service.IShopService;
+import org.comment.service.IShopTypeService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.comment.utils.RedisConstants.*;
+
+/**
+ * 缓存预热
+ * 按主键分页（WHERE id > lastId LIMIT n）依次读取店铺、店铺类型和秒杀券，每页数据交给线程池通过pipeline并行写入redis：
+ * 店铺缓存、店铺地理位置（shop:geo:{typeId}）、店铺类型快照、秒杀库存（只在不存在时写入，不覆盖正在秒杀的库存）。
+ * 应用启动时作为ApplicationRunner同步执行，执行完成前应用的就绪状态（ReadinessState）不会变为ACCEPTING_TRAFFIC；
+ * 活动开始前也可以通过接口手动触发
+ */
+@Slf4j
+@Component
+public class CacheWarmer implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SegmentedStock segmentedStock;
+
+    // 应用启动时是否预热
+    @Value("${comment.cache.warm-up.on-startup:false}")
+    private boolean onStartup;
+
+    // 每页读取的行数
+    @Value("${comment.cache.warm-up.batch-size:500}")
+    private int batchSize;
+
+    // 写入redis的线程数
+    @Value("${comment.cache.warm-up.threads:4}")
+    private int threads;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    // 最近一次预热的进度，表名 -> 进度
+    private volatile Map<String, Progress> progress = Collections.emptyMap();
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!onStartup) {
+            return;
+        }
+        if (running.compareAndSet(false, true)) {
+            warmUp();
+        }
+    }
+
+    /**
+     * 在后台线程中执行缓存预热，同一时刻只能有一个预热任务
+     * @return false代表已有预热任务正在执行
+     */
+    public boolean startWarmUp() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        new Thread(this::warmUp, "cache-warm-up").start();
+        return true;
+    }
+
+    private void warmUp() {
+        Map<String, Progress> current = new LinkedHashMap<>();
+        current.put("tb_shop", new Progress());
+        current.put("tb_shop_type", new Progress());
+        current.put("tb_seckill_voucher", new Progress());
+        progress = current;
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                runnable -> new Thread(runnable, "cache-warm-up-" + threadNumber.incrementAndGet()));
+        try {
+            log.info("开始缓存预热");
+            warmUpShops(executor, current.get("tb_shop"));
+            warmUpShopTypes(current.get("tb_shop_type"));
+            warmUpSecKillStocks(executor, current.get("tb_seckill_voucher"));
+            log.info("缓存预热完成，耗时{}ms，进度：{}", System.currentTimeMillis() - startTime, status().get("tables"));
+        } catch (Exception e) {
+            // 预热失败不影响启动，未预热的数据在第一次访问时加载
+            log.error("缓存预热失败", e);
+        } finally {
+            executor.shutdown();
+            endTime = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * @return 最近一次预热的状态和每张表的进度
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("startTime", startTime);
+        status.put("costMillis", startTime == 0 ? 0 : (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime);
+        Map<String, Object> tables = new LinkedHashMap<>();
+        progress.forEach((table, p) -> tables.put(table, p.toMap()));
+        status.put("tables", tables);
+        return status;
+    }
+
+    // 店铺缓存和地理位置
+    private void warmUpShops(ExecutorService executor, Progress progress) {
+        stream(executor, progress,
+                lastId -> shopService.query().gt("id", lastId).orderByAsc("id").last("LIMIT " + batchSize).list(),
+                Shop::getId,
+                (shops, delta) -> {
+                    Map<Long, Shop> shopMap = shops.stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+                    cacheClient.setBatchWithRefreshAhead(CACHE_SHOP_KEY, shopMap, delta, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+                        shops.stream()
+                                .filter(shop -> shop.getTypeId() != null && shop.getX() != null && shop.getY() != null)
+                                .collect(Collectors.groupingBy(Shop::getTypeId))
+                                .forEach((typeId, list) -> stringRedisConnection.geoAdd(SHOP_GEO_KEY + typeId,
+                                        list.stream().collect(Collectors.toMap(shop -> shop.getId().toString(),
+                                                shop -> new Point(shop.getX(), shop.getY())))));
+                        return null;
+                    });
+                });
+    }
+
+    // 店铺类型快照，数据量很小，读取完成后一次写入
+    private void warmUpShopTypes(Progress progress) {
+        List<ShopType> shopTypes = new ArrayList<>();
+        long lastId = 0;
+        while (true) {
+            List<ShopType> page = shopTypeService.query().gt("id", lastId).orderByAsc("id").last("LIMIT " + batchSize).list();
+            if (page.isEmpty()) {
+                break;
+            }
+            shopTypes.addAll(page);
+            lastId = page.get(page.size() - 1).getId();
+            progress.batches.increment();
+        }
+        shopTypes.sort(Comparator.comparing(ShopType::getSort, Comparator.nullsLast(Comparator.naturalOrder())));
+        shopTypeService.saveTypeSnapshot(shopTypes);
+        progress.rows.add(shopTypes.size());
+    }
+
+    // 秒杀库存，只在key不存在时写入；分段的秒杀券库存在各段的key中，不写入
+    private void warmUpSecKillStocks(ExecutorService executor, Progress progress) {
+        stream(executor, progress,
+                lastId -> secKillVoucherService.query().gt("voucher_id", lastId).orderByAsc("voucher_id").last("LIMIT " + batchSize).list(),
+                SecKillVoucher::getVoucherId,
+                (vouchers, delta) -> {
+                    // 在pipeline之外判断是否分段，pipeline中的查询不会立即返回结果
+                    List<SecKillVoucher> unsegmented = vouchers.stream()
+                            .filter(voucher -> voucher.getStock() != null)
+                            .filter(voucher -> !segmentedStock.isSegmented(voucher.getVoucherId()))
+                            .collect(Collectors.toList());
+                    stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                        StringRedisConnection stringRedisConnection = (StringRedisConnection) connection;
+                        unsegmented.forEach(voucher -> stringRedisConnection.setNX(SEC_KILL_STOCK_KEY + voucher.getVoucherId(),
+                                voucher.getStock().toString()));
+                        return null;
+                    });
+                });
+    }
+
+    /**
+     * 按主键分页读取数据，每页交给线程池写入redis，等待所有页写入完成后返回
+     * 同时在写入的页数不超过线程数的2倍，避免读取速度远大于写入速度时占用过多内存
+     * @param pageLoader 根据上一页最后一条数据的id读取下一页
+     * @param idGetter 获取主键
+     * @param writer 写入一页数据，第二个参数为读取这一页的耗时（毫秒）
+     */
+    private <T> void stream(ExecutorService executor, Progress progress, Function<Long, List<T>> pageLoader,
+                            Function<T, Long> idGetter, BiConsumer<List<T>, Long> writer) {
+        Semaphore permits = new Semaphore(threads * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        long lastId = 0;
+        try {
+            while (true) {
+                long begin = System.currentTimeMillis();
+                List<T> page = pageLoader.apply(lastId);
+                if (page.isEmpty()) {
+                    break;
+                }
+                long delta = System.currentTimeMillis() - begin;
+                lastId = idGetter.apply(page.get(page.size() - 1));
+                permits.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        writer.accept(page, delta);
+                        progress.rows.add(page.size());
+                        progress.batches.increment();
+                    } catch (Exception e) {
+                        progress.failedBatches.increment();
+                        log.error("缓存预热写入redis失败", e);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class Progress {
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder failedBatches = new LongAdder();
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("rows", rows.sum());
+            map.put("batches", batches.sum());
+            map.put("failedBatches", failedBatches.sum());
+            return map;
+        }
+    }
+}
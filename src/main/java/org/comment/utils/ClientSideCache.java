@@ -0,0 +1,221 @@
+package org.comment.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.util.StrUtil;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateListener;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.RedisCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于RESP3客户端缓存（CLIENT TRACKING）的进程内缓存
+ * 使用一个独立的RESP3连接以BCAST模式订阅指定前缀，任何客户端修改这些前缀的key时，redis向该连接推送失效消息，
+ * 本地立即删除对应的副本，因此读多写少的key大部分读取不需要访问redis。
+ * 连接断开期间无法收到失效消息，断开时清空本地副本，重连后重新开启TRACKING之前不使用本地副本
+ */
+@Slf4j
+@Component
+public class ClientSideCache {
+
+    @Value("${comment.cache.client-side.enabled:false}")
+    private boolean enabled;
+
+    // 使用客户端缓存的前缀
+    @Value("${comment.cache.client-side.prefixes:cache:shop:,cache:shop-type,login:token:}")
+    private String[] prefixes;
+
+    @Value("${comment.cache.client-side.maximum-size:10000}")
+    private int maximumSize;
+
+    // 本地副本的存活时间（秒），限制内存占用，失效由redis推送
+    @Value("${comment.cache.client-side.ttl:600}")
+    private long ttl;
+
+    @Resource
+    private RedisProperties redisProperties;
+
+    private RedisClient client;
+
+    private StatefulRedisConnection<String, byte[]> connection;
+
+    private LRUCache<String, byte[]> cache;
+
+    // 是否已开启TRACKING，未开启时不使用本地副本
+    private volatile boolean tracking;
+
+    // 每收到一次失效消息加1，查询redis前后不一致时不写入本地副本，避免失效消息先于写入处理而留下旧数据
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        cache = CacheUtil.newLRUCache(maximumSize, TimeUnit.SECONDS.toMillis(ttl));
+        try {
+            connect(redisProperties.getHost(), redisProperties.getPort(), redisProperties.getPassword(), redisProperties.getDatabase());
+        } catch (Exception e) {
+            // redis版本低于6或连接失败时不使用客户端缓存
+            log.error("开启客户端缓存失败，直接读取redis", e);
+            shutdown();
+            enabled = false;
+        }
+    }
+
+    private void connect(String host, int port, String password, int database) {
+        RedisURI.Builder builder = RedisURI.builder().withHost(host).withPort(port).withDatabase(database);
+        if (StrUtil.isNotEmpty(password)) {
+            builder.withPassword(password.toCharArray());
+        }
+        client = RedisClient.create(builder.build());
+        client.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP3).build());
+        client.addListener(new RedisConnectionStateListener() {
+            @Override
+            public void onRedisConnected(RedisChannelHandler<?, ?> handler, SocketAddress address) {
+                // 重连后重新开启TRACKING，第一次连接在connect中开启
+                if (connection != null) {
+                    connection.async().clientTracking(trackingArgs()).thenRun(() -> {
+                        tracking = true;
+                        log.info("客户端缓存重新开启TRACKING");
+                    });
+                }
+            }
+
+            @Override
+            public void onRedisDisconnected(RedisChannelHandler<?, ?> handler) {
+                tracking = false;
+                cache.clear();
+            }
+
+            @Override
+            public void onRedisExceptionCaught(RedisChannelHandler<?, ?> handler, Throwable cause) {
+            }
+        });
+        StatefulRedisConnection<String, byte[]> conn = client.connect(RedisCodec.of(StringCodec.UTF8, ByteArrayCodec.INSTANCE));
+        conn.addListener(this::onPushMessage);
+        conn.sync().clientTracking(trackingArgs());
+        connection = conn;
+        tracking = true;
+        log.info("客户端缓存已开启，前缀：{}", String.join(",", prefixes));
+    }
+
+    private TrackingArgs trackingArgs() {
+        return TrackingArgs.Builder.enabled().bcast().prefixes(prefixes);
+    }
+
+    // 处理redis推送的失效消息：["invalidate", [key...]]，key为null代表FLUSHDB/FLUSHALL
+    private void onPushMessage(PushMessage message) {
+        if (!"invalidate".equals(message.getType())) {
+            return;
+        }
+        epoch.incrementAndGet();
+        List<Object> content = message.getContent(StringCodec.UTF8::decodeKey);
+        Object keys = content.size() > 1 ? content.get(1) : null;
+        if (keys instanceof List) {
+            for (Object key : (List<?>) keys) {
+                cache.remove((String) key);
+                invalidations.increment();
+            }
+        } else {
+            cache.clear();
+            invalidations.increment();
+        }
+    }
+
+    /**
+     * 判断该key是否使用客户端缓存
+     * @param key 键
+     * @return true代表使用客户端缓存
+     */
+    public boolean supports(String key) {
+        if (!enabled) {
+            return false;
+        }
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 查询数据，优先使用本地副本，本地不存在时查询redis并保存副本
+     * @param key 键，必须满足supports
+     * @return 缓存的值，不存在返回null
+     */
+    public byte[] get(String key) {
+        if (tracking) {
+            byte[] value = cache.get(key, false);
+            if (value != null) {
+                hits.increment();
+                return value;
+            }
+        }
+        misses.increment();
+        long current = epoch.get();
+        byte[] value = connection.sync().get(key);
+        if (value != null && tracking && current == epoch.get()) {
+            cache.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * @return 本地副本数量、命中次数和收到的失效消息数
+     */
+    public Map<String, Object> stats() {
+        long hit = hits.sum();
+        long miss = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("tracking", tracking);
+        stats.put("size", cache == null ? 0 : cache.size());
+        stats.put("hits", hit);
+        stats.put("misses", miss);
+        stats.put("hitRatio", hit + miss == 0 ? 0 : (double) hit / (hit + miss));
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        tracking = false;
+        if (connection != null) {
+            connection.close();
+        }
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.comment.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.lang.hash.MurmurHash;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * 热点key探测
+ * 按比例抽样访问redis的key，用Count-Min Sketch统计每个时间窗口内的访问次数，
+ * 估算的QPS超过阈值的key成为热点key，热点key的查询结果在本地保存很短的时间，减轻单个redis节点的压力。
+ * 注意：本地副本不会收到失效通知，写操作后应调用invalidate删除本节点的副本，其他节点的副本最多存活replica-ttl毫秒
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+
+    // Count-Min Sketch的行数（哈希函数个数）
+    private static final int DEPTH = 4;
+
+    // Count-Min Sketch的列数，必须是2的幂
+    private static final int WIDTH = 1 << 12;
+
+    @Value("${comment.cache.hot-key.enabled:false}")
+    private boolean enabled;
+
+    // 抽样比例
+    @Value("${comment.cache.hot-key.sample-rate:0.1}")
+    private double sampleRate;
+
+    // 成为热点key的QPS阈值
+    @Value("${comment.cache.hot-key.threshold:1000}")
+    private long threshold;
+
+    // 统计窗口（毫秒）
+    @Value("${comment.cache.hot-key.window-millis:1000}")
+    private long windowMillis;
+
+    // 不再超过阈值后，热点key保留的时间（毫秒）
+    @Value("${comment.cache.hot-key.hold-millis:10000}")
+    private long holdMillis;
+
+    // 本地副本的存活时间（毫秒）
+    @Value("${comment.cache.hot-key.replica-ttl:1000}")
+    private long replicaTtl;
+
+    // 同时存在的热点key的最大数量
+    @Value("${comment.cache.hot-key.maximum-size:1000}")
+    private int maximumSize;
+
+    // 当前窗口的计数
+    private volatile AtomicLongArray sketch = new AtomicLongArray(DEPTH * WIDTH);
+
+    // 当前窗口的结束时间
+    private volatile long windowEnd;
+
+    // 当前的热点key
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+
+    // 热点key查询结果的本地副本
+    private LRUCache<String, Object> replicas;
+
+    @PostConstruct
+    public void init() {
+        windowEnd = System.currentTimeMillis() + windowMillis;
+        replicas = CacheUtil.newLRUCache(maximumSize * 4, replicaTtl);
+    }
+
+    /**
+     * 查询数据，热点key优先使用本地副本
+     * @param key 访问的redis的key
+     * @param loader 访问redis的函数
+     * @return 查询结果
+     */
+    public <T> T read(String key, Supplier<T> loader) {
+        return read(key, key, loader);
+    }
+
+    /**
+     * 查询数据，热点key优先使用本地副本
+     * @param key 访问的redis的key，用于统计访问次数
+     * @param replicaKey 本地副本的key，同一个redis的key有多种查询方式时用于区分
+     * @param loader 访问redis的函数
+     * @return 查询结果
+     */
+    public <T> T read(String key, String replicaKey, Supplier<T> loader) {
+        T value = get(key, replicaKey);
+        if (value != null) {
+            return value;
+        }
+        value = loader.get();
+        put(key, replicaKey, value);
+        return value;
+    }
+
+    /**
+     * 记录一次访问，热点key存在本地副本时返回副本
+     * @param key 访问的redis的key
+     * @param replicaKey 本地副本的key
+     * @return 本地副本，不存在返回null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, String replicaKey) {
+        if (!enabled) {
+            return null;
+        }
+        record(key);
+        return isHot(key) ? (T) replicas.get(replicaKey, false) : null;
+    }
+
+    /**
+     * 保存热点key的本地副本，非热点key直接忽略
+     * @param key 访问的redis的key
+     * @param replicaKey 本地副本的key
+     * @param value 查询结果
+     */
+    public void put(String key, String replicaKey, Object value) {
+        if (enabled && value != null && isHot(key)) {
+            replicas.put(replicaKey, value);
+        }
+    }
+
+    /**
+     * 删除本节点的本地副本
+     * @param replicaKey 本地副本的key
+     */
+    public void invalidate(String replicaKey) {
+        if (enabled) {
+            replicas.remove(replicaKey);
+        }
+    }
+
+    /**
+     * @return 当前的热点key及其估算的QPS，按QPS倒序
+     */
+    public List<Map<String, Object>> hotKeys() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> result = new ArrayList<>();
+        hotKeys.forEach((key, hotKey) -> {
+            if (now - hotKey.lastHotMillis <= holdMillis) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("key", key);
+                item.put("qps", hotKey.qps);
+                item.put("lastHotMillis", hotKey.lastHotMillis);
+                result.add(item);
+            }
+        });
+        result.sort((a, b) -> Long.compare((Long) b.get("qps"), (Long) a.get("qps")));
+        return result;
+    }
+
+    private boolean isHot(String key) {
+        HotKey hotKey = hotKeys.get(key);
+        return hotKey != null && System.currentTimeMillis() - hotKey.lastHotMillis <= holdMillis;
+    }
+
+    // 抽样记录一次访问，估算的QPS超过阈值时标记为热点key
+    private void record(String key) {
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= windowEnd) {
+            rotate(now);
+        }
+        AtomicLongArray counts = sketch;
+        long hash = MurmurHash.hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((h1 + i * h2) & (WIDTH - 1));
+            min = Math.min(min, counts.incrementAndGet(index));
+        }
+        // 按抽样比例和窗口长度换算为QPS
+        long qps = (long) (min / sampleRate * 1000 / windowMillis);
+        if (qps < threshold) {
+            return;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (hotKey == null) {
+            if (hotKeys.size() >= maximumSize) {
+                return;
+            }
+            hotKey = hotKeys.computeIfAbsent(key, k -> {
+                log.info("发现热点key：{}，QPS约为{}", k, qps);
+                return new HotKey();
+            });
+        }
+        hotKey.lastHotMillis = now;
+        hotKey.qps = qps;
+    }
+
+    // 开始新的统计窗口，并清理已经冷却的热点key
+    private synchronized void rotate(long now) {
+        if (now < windowEnd) {
+            return;
+        }
+        sketch = new AtomicLongArray(DEPTH * WIDTH);
+        windowEnd = now + windowMillis;
+        hotKeys.entrySet().removeIf(entry -> now - entry.getValue().lastHotMillis > holdMillis);
+    }
+
+    private static class HotKey {
+        private volatile long lastHotMillis;
+        private volatile long qps;
+    }
+}
@@ -0,0 +1,138 @@
+package org.comment.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.comment.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内一级缓存（L1），位于Redis之前
+ * 容量和存活时间都有上限，缓存失效时通过Redis发布订阅通知所有节点删除本地副本
+ * 注意：缓存的是反序列化后的对象，各请求共享同一个实例，调用方不能修改返回的对象
+ */
+@Slf4j
+@Component
+public class NearCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 是否开启一级缓存
+    @Value("${comment.cache.near.enabled:false}")
+    private boolean enabled;
+
+    // 最大缓存条数，超出后按LRU淘汰
+    @Value("${comment.cache.near.maximum-size:10000}")
+    private int maximumSize;
+
+    // 本地副本的存活时间（秒），即使失效消息丢失，脏数据也不会超过该时间
+    @Value("${comment.cache.near.ttl:30}")
+    private long ttl;
+
+    // 允许进入一级缓存的业务前缀
+    @Value("${comment.cache.near.prefixes:cache:shop:}")
+    private String[] prefixes;
+
+    private LRUCache<String, Object> cache;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        cache = CacheUtil.newLRUCache(maximumSize, TimeUnit.SECONDS.toMillis(ttl));
+        // 订阅失效消息
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    /**
+     * 判断该key是否使用一级缓存
+     * @param key 键
+     * @return true代表使用一级缓存
+     */
+    public boolean supports(String key) {
+        if (!enabled) {
+            return false;
+        }
+        for (String prefix : prefixes) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从一级缓存中获取数据
+     * @param key 键
+     * @param type 实体类
+     * @return 缓存的对象，不存在返回null
+     */
+    public <R> R get(String key, Class<R> type) {
+        if (!supports(key)) {
+            return null;
+        }
+        Object value = cache.get(key, false);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+
+    /**
+     * 写入一级缓存
+     * @param key 键
+     * @param value 值
+     */
+    public void put(String key, Object value) {
+        if (value == null || !supports(key)) {
+            return;
+        }
+        cache.put(key, value);
+    }
+
+    /**
+     * 写入一级缓存，存活时间不超过maxTtlMillis，用于逻辑过期的数据：本地副本不会比redis中的数据更晚过期
+     * @param key 键
+     * @param value 值
+     * @param maxTtlMillis 最长存活时间（毫秒），不大于0时不写入
+     */
+    public void put(String key, Object value, long maxTtlMillis) {
+        if (value == null || maxTtlMillis <= 0 || !supports(key)) {
+            return;
+        }
+        cache.put(key, value, Math.min(maxTtlMillis, TimeUnit.SECONDS.toMillis(ttl)));
+    }
+
+    /**
+     * 删除本节点的副本，并通知其他节点删除
+     * @param key 键
+     */
+    public void invalidate(String key) {
+        if (!supports(key)) {
+            return;
+        }
+        cache.remove(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("收到缓存失效消息，key = {}", key);
+        cache.remove(key);
+    }
+}
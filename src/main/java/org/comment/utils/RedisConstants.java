@@ -10,14 +10,33 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_HASH_KEY = "cache:shop-hash:";
 
-    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type";
+    public static final String CACHE_SHOP_TYPE_KEY = "cache:shop-type:snapshot";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop-type:version";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String CACHE_BLOOM_CHANNEL = "cache:bloom";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_DEFAULT_TTL = 10L;
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SEC_KILL_STOCK_KEY = "secKill:stock:";
+    public static final String SEC_KILL_ORDER_KEY = "secKill:voucherOrder:";
+    public static final String SEC_KILL_SEGMENTS_KEY = "secKill:segments:";
+    public static final String SEC_KILL_SOLD_OUT_CHANNEL = "secKill:soldOut";
+    public static final String SEC_KILL_VOUCHER_CHANNEL = "secKill:voucher";
+    public static final String SEC_KILL_ORDER_STREAM_KEY = "stream.voucherOrders";
+    public static final String SEC_KILL_ORDER_GROUP = "g1";
+    public static final String SEC_KILL_ORDER_DEAD_LETTER_KEY = "stream.voucherOrders.dlq";
+    public static final String SEC_KILL_ADMISSION_KEY = "secKill:admission:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FOLLOW_KEY = "follows:";
     public static final String FEED_KEY = "feed:";
@@ -8,4 +8,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    // 重建缓存的耗时（毫秒），用于提前刷新，逻辑过期的数据中为空
+    private Long delta;
 }
@@ -1,13 +1,35 @@
 package org.comment.utils;
 
+import cn.hutool.core.thread.ThreadUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局唯一id生成器：1位符号位 + 31位时间戳 + 32位序列号，序列号由redis中每天一个的计数器生成
+ * 开启号段模式时，每个节点用一次INCRBY预留step个序列号，在本地用原子计数器分配，当前号段剩余不足prefetch-ratio时
+ * 异步预取下一个号段，大部分id的生成不需要访问redis。
+ * 号段只在预留它的那一天使用，跨天时丢弃剩余的号段，因此时间戳相同的id一定来自同一天的计数器，id仍然全局唯一；
+ * 两种模式使用同一个计数器，可以混合部署。时间戳取分配时的时间，不同节点之间的id按秒大致有序
+ */
+@Slf4j
 @Component
 @SuppressWarnings("all")
 public class RedisIdWorker {
@@ -18,21 +40,139 @@ public class RedisIdWorker {
     // 序列号位数
     private static final int COUNT_BITS = 32;
 
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final ZoneRules ZONE_RULES = ZoneId.systemDefault().getRules();
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Value("${comment.id.segment.enabled:false}")
+    private boolean segmentEnabled;
+
+    // 每个号段的序列号数量
+    @Value("${comment.id.segment.step:1000}")
+    private int step;
+
+    // 当前号段剩余的比例低于该值时预取下一个号段
+    @Value("${comment.id.segment.prefetch-ratio:0.2}")
+    private double prefetchRatio;
+
+    // key前缀 -> 号段缓冲
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor =
+            Executors.newSingleThreadExecutor(ThreadUtil.newNamedThreadFactory("id-segment-prefetch-", true));
+
     // 生成全局唯一id：1位符号位 + 31位时间戳 + 32位序列号
     public long nextId(String keyPrefix) {
+        if (segmentEnabled) {
+            return nextSegmentId(keyPrefix);
+        }
+
         // 1.生成时间戳
         LocalDateTime now = LocalDateTime.now();
         long timeStamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
 
         // 2.利用redis的自增长生成序列号
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
+        String date = now.format(DATE_FORMATTER);
         long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
 
         // 3.返回全局唯一count
         return timeStamp << COUNT_BITS | count;
     }
 
+    private long nextSegmentId(String keyPrefix) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            // 与LocalDateTime.now().toEpochSecond(ZoneOffset.UTC)相同：本地时间按UTC换算的秒数
+            long now = localSeconds();
+            Segment segment = buffer.current;
+            if (segment != null && segment.contains(now)) {
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.end) {
+                    if (segment.end - count < step * prefetchRatio) {
+                        prefetch(keyPrefix, buffer, segment);
+                    }
+                    return (now - BEGIN_TIMESTAMP) << COUNT_BITS | count;
+                }
+            }
+            switchSegment(keyPrefix, buffer, segment, now);
+        }
+    }
+
+    // 当前号段用完或跨天时切换到预取的号段，没有可用的预取号段时同步预留
+    private void switchSegment(String keyPrefix, SegmentBuffer buffer, Segment exhausted, long now) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                // 其他线程已经切换
+                return;
+            }
+            Segment next = buffer.next;
+            buffer.next = null;
+            buffer.current = next != null && next.contains(now) ? next : reserve(keyPrefix, now);
+        }
+    }
+
+    private void prefetch(String keyPrefix, SegmentBuffer buffer, Segment current) {
+        if (buffer.next != null || !buffer.loading.compareAndSet(false, true)) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                // 只为当前号段所在的一天预取，跨天的号段在第一次使用时同步预留
+                if (buffer.current == current && buffer.next == null) {
+                    buffer.next = reserve(keyPrefix, current.dayStart);
+                }
+            } catch (Exception e) {
+                log.error("预取号段失败，用完后同步预留，keyPrefix = {}", keyPrefix, e);
+            } finally {
+                buffer.loading.set(false);
+            }
+        });
+    }
+
+    // INCRBY icr:keyPrefix:yyyy:MM:dd step，预留(end - step, end]
+    private Segment reserve(String keyPrefix, long now) {
+        long dayStart = Math.floorDiv(now, SECONDS_PER_DAY) * SECONDS_PER_DAY;
+        String date = LocalDate.ofEpochDay(dayStart / SECONDS_PER_DAY).format(DATE_FORMATTER);
+        long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, step);
+        return new Segment(dayStart, end - step + 1, end);
+    }
+
+    private static long localSeconds() {
+        long millis = System.currentTimeMillis();
+        return Math.floorDiv(millis, 1000) + ZONE_RULES.getOffset(Instant.ofEpochMilli(millis)).getTotalSeconds();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    // 每个key前缀的双缓冲：正在使用的号段和预取的下一个号段
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile Segment next;
+        private final AtomicBoolean loading = new AtomicBoolean();
+    }
+
+    private static class Segment {
+        // 号段所属一天的开始时间（本地时间按UTC换算的秒数）
+        private final long dayStart;
+        private final long end;
+        private final AtomicLong cursor;
+
+        private Segment(long dayStart, long start, long end) {
+            this.dayStart = dayStart;
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+
+        private boolean contains(long now) {
+            return now >= dayStart && now < dayStart + SECONDS_PER_DAY;
+        }
+    }
 }
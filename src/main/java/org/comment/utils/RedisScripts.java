@@ -0,0 +1,364 @@
+package org.comment.utils;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.thread.ThreadUtil;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.crypto.SecureUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lua脚本注册表
+ * 启动时SCRIPT LOAD所有脚本，之后只发送EVALSHA，redis重启或SCRIPT FLUSH后收到NOSCRIPT时重新加载并重试一次。
+ * 开启批量执行时，window-micros内并发到达的调用合并为一次pipeline发送，减少高并发秒杀时的网络往返和系统调用；
+ * 每个调用仍然是独立的EVALSHA，原子性不变。按脚本统计执行耗时（批量执行时包含排队时间）
+ */
+@Slf4j
+@Component
+public class RedisScripts {
+
+    public static final String SEC_KILL = "seckill";
+    public static final String SEC_KILL_BY_STREAM = "seckillByStream";
+    public static final String SEC_KILL_ROLLBACK = "seckillRollback";
+    public static final String SEGMENT_SEC_KILL = "segmentSeckill";
+    public static final String SEGMENT_TAKE = "segmentTake";
+    public static final String HASH_PATCH = "hashPatch";
+    public static final String TOKEN_BUCKET = "tokenBucket";
+    public static final String UNLOCK = "unlock";
+    public static final String REENTRANT_TRY_LOCK = "ReentrantTryLock";
+    public static final String REENTRANT_UNLOCK = "ReentrantUnLock";
+
+    private static final List<String> NAMES = Arrays.asList(SEC_KILL, SEC_KILL_BY_STREAM, SEC_KILL_ROLLBACK, SEGMENT_SEC_KILL,
+            SEGMENT_TAKE, HASH_PATCH, TOKEN_BUCKET, UNLOCK, REENTRANT_TRY_LOCK, REENTRANT_UNLOCK);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${comment.redis.script.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    // 凑满一批最多等待的时间（微秒）
+    @Value("${comment.redis.script.batch.window-micros:200}")
+    private long windowMicros;
+
+    @Value("${comment.redis.script.batch.max-size:64}")
+    private int maxBatchSize;
+
+    // 发送pipeline的线程数，每个线程同时只有一个pipeline在执行
+    @Value("${comment.redis.script.batch.threads:2}")
+    private int threads;
+
+    // 等待批量执行结果的最长时间（毫秒）
+    @Value("${comment.redis.script.batch.timeout-millis:1000}")
+    private long timeoutMillis;
+
+    private final Map<String, Script> scripts = new LinkedHashMap<>();
+
+    private final BlockingQueue<Call> calls = new LinkedBlockingQueue<>();
+
+    private ExecutorService flushers;
+
+    private volatile boolean running;
+
+    private final LongAdder flushes = new LongAdder();
+
+    private final LongAdder batchedCalls = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        for (String name : NAMES) {
+            Script script = new Script(name, read(name + ".lua"));
+            scripts.put(name, script);
+        }
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                scripts.values().forEach(script -> load(connection, script));
+                return null;
+            });
+            log.info("Lua脚本加载完成：{}", scripts.keySet());
+        } catch (Exception e) {
+            // redis不可用时在第一次收到NOSCRIPT时加载
+            log.error("加载Lua脚本失败！", e);
+        }
+        if (batchEnabled) {
+            running = true;
+            flushers = Executors.newFixedThreadPool(threads, ThreadUtil.newNamedThreadFactory("redis-script-batch-", true));
+            for (int i = 0; i < threads; i++) {
+                flushers.submit(this::flushLoop);
+            }
+        }
+    }
+
+    private static byte[] read(String location) {
+        try (InputStream in = new ClassPathResource(location).getInputStream()) {
+            return IoUtil.readBytes(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("读取Lua脚本失败：" + location, e);
+        }
+    }
+
+    private void load(RedisConnection connection, Script script) {
+        String sha = connection.scriptingCommands().scriptLoad(script.body);
+        if (!script.sha.equals(sha)) {
+            log.warn("脚本{}的sha不一致，本地：{}，redis：{}", script.name, script.sha, sha);
+        }
+        script.loads.increment();
+    }
+
+    /**
+     * 执行脚本，只发送EVALSHA，收到NOSCRIPT时重新加载后重试一次
+     * @param name 脚本名称
+     * @param keys 脚本访问的key
+     * @param args 参数
+     * @return 脚本返回的整数
+     */
+    public Long execute(String name, List<String> keys, Object... args) {
+        Script script = script(name);
+        byte[][] keysAndArgs = keysAndArgs(keys, args);
+        long begin = System.nanoTime();
+        try {
+            return stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+                try {
+                    return evalSha(connection, script, keys.size(), keysAndArgs);
+                } catch (RuntimeException e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    load(connection, script);
+                    return evalSha(connection, script, keys.size(), keysAndArgs);
+                }
+            });
+        } finally {
+            script.latency.recordSince(begin);
+        }
+    }
+
+    /**
+     * 批量执行脚本：与其他线程并发的调用合并为一个pipeline发送，等待结果返回；未开启批量执行时直接执行
+     * 最多等待timeout-millis，超时时取消调用，还没有发送的调用不会再执行，已经发送的调用结果未知
+     * @param name 脚本名称
+     * @param keys 脚本访问的key
+     * @param args 参数
+     * @return 脚本返回的整数
+     */
+    public Long executeBatched(String name, List<String> keys, Object... args) {
+        if (!running) {
+            return execute(name, keys, args);
+        }
+        Call call = new Call(script(name), keys.size(), keysAndArgs(keys, args));
+        calls.add(call);
+        try {
+            return call.future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            call.future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待脚本执行结果时被中断", e);
+        } catch (ExecutionException e) {
+            throw ExceptionUtil.wrapRuntime(e.getCause());
+        } catch (TimeoutException e) {
+            call.future.cancel(false);
+            timeouts.increment();
+            throw new IllegalStateException(StrUtil.format("等待脚本{}执行结果超时：{}ms，排队调用数：{}",
+                    name, timeoutMillis, calls.size()), e);
+        }
+    }
+
+    private void flushLoop() {
+        List<Call> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                // 阻塞等待第一个调用，之后最多等待window-micros凑满一批
+                Call first = calls.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(windowMicros);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Call call = remaining > 0 ? calls.poll(remaining, TimeUnit.NANOSECONDS) : calls.poll();
+                    if (call == null) {
+                        break;
+                    }
+                    batch.add(call);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("批量执行脚本异常！", e);
+                batch.forEach(call -> call.future.completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Call> batch) {
+        // 跳过调用方已经超时取消的调用
+        batch.removeIf(call -> call.future.isDone());
+        if (batch.isEmpty()) {
+            return;
+        }
+        flushes.increment();
+        batchedCalls.add(batch.size());
+        List<Object> results;
+        try {
+            results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (Call call : batch) {
+                    evalSha(connection, call.script, call.numKeys, call.keysAndArgs);
+                }
+                return null;
+            });
+        } catch (RedisPipelineException e) {
+            // 部分调用失败，其他调用已经执行，不能整批重试
+            results = e.getPipelineResult();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Call call = batch.get(i);
+            Object result = i < results.size() ? results.get(i) : null;
+            if (result instanceof Throwable) {
+                if (isNoScript((Throwable) result)) {
+                    // 脚本不存在时没有执行，重新加载后单独执行
+                    executeOne(call);
+                } else {
+                    call.future.completeExceptionally((Throwable) result);
+                }
+                continue;
+            }
+            call.script.latency.recordSince(call.begin);
+            call.future.complete((Long) result);
+        }
+    }
+
+    private void executeOne(Call call) {
+        try {
+            Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection -> {
+                try {
+                    return evalSha(connection, call.script, call.numKeys, call.keysAndArgs);
+                } catch (RuntimeException e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    load(connection, call.script);
+                    return evalSha(connection, call.script, call.numKeys, call.keysAndArgs);
+                }
+            });
+            call.script.latency.recordSince(call.begin);
+            call.future.complete(result);
+        } catch (Exception e) {
+            call.future.completeExceptionally(e);
+        }
+    }
+
+    private static Long evalSha(RedisConnection connection, Script script, int numKeys, byte[][] keysAndArgs) {
+        return connection.scriptingCommands().evalSha(script.sha, ReturnType.INTEGER, numKeys, keysAndArgs);
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        return StrUtil.contains(ExceptionUtil.getRootCauseMessage(e), "NOSCRIPT");
+    }
+
+    private Script script(String name) {
+        Script script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException("脚本不存在：" + name);
+        }
+        return script;
+    }
+
+    private static byte[][] keysAndArgs(List<String> keys, Object[] args) {
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < args.length; i++) {
+            keysAndArgs[keys.size() + i] = String.valueOf(args[i]).getBytes(StandardCharsets.UTF_8);
+        }
+        return keysAndArgs;
+    }
+
+    /**
+     * @return 每个脚本的执行次数、耗时和加载次数，以及批量执行的平均批次大小
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        scripts.forEach((name, script) -> {
+            Map<String, Object> map = new LinkedHashMap<>(script.latency.toMap());
+            map.put("sha", script.sha);
+            map.put("loads", script.loads.sum());
+            stats.put(name, map);
+        });
+        long flushCount = flushes.sum();
+        Map<String, Object> batch = new LinkedHashMap<>();
+        batch.put("enabled", running);
+        batch.put("flushes", flushCount);
+        batch.put("calls", batchedCalls.sum());
+        batch.put("avgBatchSize", flushCount == 0 ? 0 : (double) batchedCalls.sum() / flushCount);
+        batch.put("queued", calls.size());
+        batch.put("timeouts", timeouts.sum());
+        stats.put("batch", batch);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (flushers != null) {
+            flushers.shutdownNow();
+        }
+        Call call;
+        while ((call = calls.poll()) != null) {
+            call.future.completeExceptionally(new IllegalStateException("脚本注册表已关闭"));
+        }
+    }
+
+    private static class Script {
+        private final String name;
+        private final byte[] body;
+        private final String sha;
+        private final CacheMetrics.Timer latency = new CacheMetrics.Timer();
+        private final LongAdder loads = new LongAdder();
+
+        private Script(String name, byte[] body) {
+            this.name = name;
+            this.body = body;
+            this.sha = SecureUtil.sha1().digestHex(body);
+        }
+    }
+
+    private static class Call {
+        private final Script script;
+        private final int numKeys;
+        private final byte[][] keysAndArgs;
+        private final long begin = System.nanoTime();
+        private final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        private Call(Script script, int numKeys, byte[][] keysAndArgs) {
+            this.script = script;
+            this.numKeys = numKeys;
+            this.keysAndArgs = keysAndArgs;
+        }
+    }
+}
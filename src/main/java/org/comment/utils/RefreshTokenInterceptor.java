@@ -1,9 +1,13 @@
 package org.comment.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.comment.dto.UserDTO;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
@@ -22,8 +26,28 @@ import static org.comment.utils.RedisConstants.LOGIN_USER_TTL;
 public class RefreshTokenInterceptor implements HandlerInterceptor {
     private final StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final CacheCodecs cacheCodecs;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final ClientSideCache clientSideCache;
+
+    // 最近刷新过有效期的token，同一个token每分钟最多刷新一次有效期
+    // 刷新有效期也会修改key，开启客户端缓存时每次都刷新会让本地副本立即失效
+    private final LRUCache<String, Boolean> refreshed = CacheUtil.newLRUCache(100000, TimeUnit.MINUTES.toMillis(1));
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate,
+                                   RedisTemplate<String, byte[]> byteRedisTemplate,
+                                   CacheCodecs cacheCodecs,
+                                   CacheMetrics cacheMetrics,
+                                   ClientSideCache clientSideCache) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        this.cacheCodecs = cacheCodecs;
+        this.cacheMetrics = cacheMetrics;
+        this.clientSideCache = clientSideCache;
     }
 
     @Override
@@ -37,22 +61,43 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         }
         String key = LOGIN_USER_KEY + JwtTokenUtil.getUserIdFromToken(token);
 
-        // 2.从redis中获取用户信息
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
-        if (userMap.isEmpty()) {
+        // 2.从redis中获取用户信息并转换为UserDTO对象
+        UserDTO userDTO = getUser(key);
+        if (userDTO == null) {
             // 用户不存在
             return true;
         }
 
-        // 3.将查询到的用户信息转换为UserDTO对象
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-
         // 4.保存用户信息到ThreadLocal
         UserHolder.saveUser(userDTO);
 
         // 5.刷新token有效期
-        stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.SECONDS);
+        if (refreshed.get(key, false) == null) {
+            stringRedisTemplate.expire(key, LOGIN_USER_TTL, TimeUnit.SECONDS);
+            refreshed.put(key, Boolean.TRUE);
+        }
 
         return true;
     }
+
+    private UserDTO getUser(String key) {
+        CacheMetrics.PrefixMetrics metrics = cacheMetrics.of(key);
+        UserDTO userDTO;
+        try {
+            byte[] bytes = clientSideCache.supports(key) ? clientSideCache.get(key) : byteRedisTemplate.opsForValue().get(key);
+            long begin = System.nanoTime();
+            userDTO = cacheCodecs.decode(bytes, UserDTO.class);
+            metrics.serialization().recordSince(begin);
+        } catch (DataAccessException e) {
+            // 旧版本以Hash结构保存用户信息（WRONGTYPE），兼容读取直到重新登录
+            Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+            userDTO = userMap.isEmpty() ? null : BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        }
+        if (userDTO != null) {
+            metrics.hit();
+        } else {
+            metrics.miss();
+        }
+        return userDTO;
+    }
 }
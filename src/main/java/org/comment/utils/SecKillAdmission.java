@@ -0,0 +1,207 @@
+package org.comment.utils;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.comment.utils.RedisConstants.SEC_KILL_ADMISSION_KEY;
+
+/**
+ * 秒杀请求的准入控制
+ * 每个节点按优惠券维护一个令牌桶，超出速率的请求在访问redis和数据库之前直接拒绝；
+ * 开启集群令牌桶时，通过本节点令牌桶的请求再经过redis中按优惠券的令牌桶，限制所有节点的总速率。
+ * 集群令牌桶访问redis失败时放行，由本节点令牌桶兜底。
+ * 准入控制在登录之前执行，只为本节点已知的秒杀券创建令牌桶和计数，任意id的请求不会让状态无限增长
+ */
+@Slf4j
+@Component
+public class SecKillAdmission {
+
+    @Value("${comment.seckill.admission.enabled:false}")
+    private boolean enabled;
+
+    // 每个节点每个优惠券默认每秒放行的请求数
+    @Value("${comment.seckill.admission.rate:500}")
+    private double defaultRate;
+
+    // 令牌桶容量，允许的突发请求数
+    @Value("${comment.seckill.admission.burst:1000}")
+    private int defaultBurst;
+
+    // 按优惠券配置的每秒请求数，格式为 优惠券id=每秒请求数，例如 12=200
+    @Value("${comment.seckill.admission.rates:}")
+    private String[] rates;
+
+    @Value("${comment.seckill.admission.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    // 所有节点每个优惠券默认每秒放行的请求数
+    @Value("${comment.seckill.admission.cluster.rate:2000}")
+    private double clusterRate;
+
+    @Value("${comment.seckill.admission.cluster.burst:4000}")
+    private int clusterBurst;
+
+    // 按优惠券配置的所有节点每秒请求数，格式与rates相同
+    @Value("${comment.seckill.admission.cluster.rates:}")
+    private String[] clusterRates;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private SecKillVoucherCache secKillVoucherCache;
+
+    private final Map<Long, Double> voucherRates = new ConcurrentHashMap<>();
+
+    private final Map<Long, Double> voucherClusterRates = new ConcurrentHashMap<>();
+
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private final Map<Long, Counters> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        parseRates(rates, voucherRates);
+        parseRates(clusterRates, voucherClusterRates);
+    }
+
+    private static void parseRates(String[] rates, Map<Long, Double> voucherRates) {
+        for (String rate : rates) {
+            int eq = rate.lastIndexOf('=');
+            if (eq > 0) {
+                voucherRates.put(Long.valueOf(rate.substring(0, eq).trim()), Double.valueOf(rate.substring(eq + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * 判断是否放行秒杀请求
+     * @param voucherId 优惠券id
+     * @return true代表放行，false代表超出速率，应当直接拒绝；不是已知的秒杀券时放行，由后续的登录校验和秒杀逻辑处理
+     */
+    public boolean tryAcquire(Long voucherId) {
+        if (!enabled) {
+            return true;
+        }
+        // 先get再computeIfAbsent，已存在时不加锁
+        Counters voucherCounters = counters.get(voucherId);
+        if (voucherCounters == null) {
+            if (!secKillVoucherCache.contains(voucherId)) {
+                return true;
+            }
+            voucherCounters = counters.computeIfAbsent(voucherId, id -> new Counters());
+        }
+
+        // 1.本节点令牌桶，不访问redis
+        TokenBucket bucket = buckets.get(voucherId);
+        if (bucket == null) {
+            bucket = buckets.computeIfAbsent(voucherId, id -> {
+                double rate = voucherRates.getOrDefault(id, defaultRate);
+                // 按优惠券配置的速率同时按比例放大突发容量
+                return new TokenBucket(rate, Math.max(1, (int) (defaultBurst * rate / defaultRate)));
+            });
+        }
+        if (!bucket.tryAcquire()) {
+            voucherCounters.localRejected.increment();
+            return false;
+        }
+
+        // 2.集群令牌桶
+        if (clusterEnabled && !tryAcquireCluster(voucherId, voucherCounters)) {
+            voucherCounters.clusterRejected.increment();
+            return false;
+        }
+        voucherCounters.admitted.increment();
+        return true;
+    }
+
+    private boolean tryAcquireCluster(Long voucherId, Counters voucherCounters) {
+        double rate = voucherClusterRates.getOrDefault(voucherId, clusterRate);
+        long burst = Math.max(1, (long) (clusterBurst * rate / clusterRate));
+        try {
+            Long result = redisScripts.executeBatched(RedisScripts.TOKEN_BUCKET,
+                    Collections.singletonList(SEC_KILL_ADMISSION_KEY + voucherId),
+                    rate, burst, System.currentTimeMillis());
+            return result == null || result == 1;
+        } catch (Exception e) {
+            voucherCounters.clusterErrors.increment();
+            log.warn("集群令牌桶不可用，放行请求，voucherId = {}，cause = {}", voucherId, ExceptionUtil.getRootCauseMessage(e));
+            return true;
+        }
+    }
+
+    /**
+     * @return 每个优惠券的放行数、本节点拒绝数、集群拒绝数和集群令牌桶异常数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("clusterEnabled", clusterEnabled);
+        Map<Long, Object> vouchers = new TreeMap<>();
+        counters.forEach((voucherId, voucherCounters) -> {
+            Map<String, Object> map = new LinkedHashMap<>();
+            TokenBucket bucket = buckets.get(voucherId);
+            map.put("rate", bucket == null ? null : bucket.rate);
+            map.put("admitted", voucherCounters.admitted.sum());
+            map.put("localRejected", voucherCounters.localRejected.sum());
+            map.put("clusterRejected", voucherCounters.clusterRejected.sum());
+            map.put("clusterErrors", voucherCounters.clusterErrors.sum());
+            vouchers.put(voucherId, map);
+        });
+        stats.put("vouchers", vouchers);
+        return stats;
+    }
+
+    /**
+     * 无锁令牌桶（GCRA）：只保存下一个令牌的理论到达时间，请求到达时间不早于该时间减去突发容许量时放行
+     */
+    static class TokenBucket {
+        private final double rate;
+        // 每个令牌的间隔（纳秒）
+        private final long interval;
+        // 允许提前到达的时间，即突发容量
+        private final long tolerance;
+        private final AtomicLong theoreticalArrival;
+
+        TokenBucket(double rate, int burst) {
+            this.rate = rate;
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+            this.tolerance = interval * (burst - 1);
+            this.theoreticalArrival = new AtomicLong(System.nanoTime());
+        }
+
+        boolean tryAcquire() {
+            long now = System.nanoTime();
+            while (true) {
+                long tat = theoreticalArrival.get();
+                long start = Math.max(tat, now);
+                if (start - now > tolerance) {
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(tat, start + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static class Counters {
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder localRejected = new LongAdder();
+        private final LongAdder clusterRejected = new LongAdder();
+        private final LongAdder clusterErrors = new LongAdder();
+    }
+}
@@ -0,0 +1,72 @@
+package org.comment.utils;
+
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import org.comment.dto.Result;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 秒杀请求准入拦截器，在所有拦截器之前执行，超出速率的请求直接返回429，不访问redis和数据库；
+ * 优惠券id不合法的请求直接返回400
+ */
+public class SecKillAdmissionInterceptor implements HandlerInterceptor {
+
+    private static final String REJECTED = JSONUtil.toJsonStr(Result.fail("抢购人数过多，请稍后重试"));
+
+    private static final String BAD_REQUEST = JSONUtil.toJsonStr(Result.fail("优惠券id不合法"));
+
+    // Long的最大值是19位
+    private static final int MAX_ID_LENGTH = 19;
+
+    private final SecKillAdmission secKillAdmission;
+
+    public SecKillAdmissionInterceptor(SecKillAdmission secKillAdmission) {
+        this.secKillAdmission = secKillAdmission;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        // 1.从路径 /voucher-order/seckill/{id} 中获取优惠券id
+        Long voucherId = parseId(StrUtil.subAfter(request.getRequestURI(), '/', true));
+        if (voucherId == null) {
+            reject(response, HttpStatus.BAD_REQUEST, BAD_REQUEST);
+            return false;
+        }
+
+        // 2.判断是否放行
+        if (secKillAdmission.tryAcquire(voucherId)) {
+            return true;
+        }
+
+        // 3.超出速率，直接拒绝
+        response.setHeader("Retry-After", "1");
+        reject(response, HttpStatus.TOO_MANY_REQUESTS, REJECTED);
+        return false;
+    }
+
+    // 不是数字、超长或超出Long范围时返回null
+    private static Long parseId(String id) {
+        if (!StrUtil.isNumeric(id) || id.length() > MAX_ID_LENGTH) {
+            return null;
+        }
+        try {
+            return Long.valueOf(id);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void reject(HttpServletResponse response, HttpStatus status, String body) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(body);
+    }
+}
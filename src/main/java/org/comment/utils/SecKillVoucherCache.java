@@ -0,0 +1,149 @@
+package org.comment.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.extern.slf4j.Slf4j;
+import org.comment.entity.SecKillVoucher;
+import org.comment.service.ISecKillVoucherService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.comment.utils.RedisConstants.SEC_KILL_VOUCHER_CHANNEL;
+
+/**
+ * 秒杀券元数据（秒杀的开始和结束时间）的进程内缓存，秒杀请求判断时间窗口时不访问数据库和redis
+ * 启动时加载所有秒杀券；新增秒杀券的事务提交后写入本节点，并通过Redis发布订阅通知其他节点从数据库重新加载。
+ * 不存在的id查询一次数据库后记录一段时间，避免不存在的id每次都访问数据库
+ * 注意：只保存开始和结束时间，库存以redis为准
+ */
+@Slf4j
+@Component
+public class SecKillVoucherCache implements MessageListener {
+
+    // 启动时每批读取的秒杀券数量
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 不存在的id的记录时间（秒）
+    @Value("${comment.seckill.voucher-cache.missing-ttl:10}")
+    private long missingTtl;
+
+    // 优惠券id -> 秒杀券元数据
+    private final Map<Long, SecKillVoucher> vouchers = new ConcurrentHashMap<>();
+
+    // 数据库中不存在的优惠券id
+    private LRUCache<Long, Boolean> missing;
+
+    @PostConstruct
+    public void init() {
+        missing = CacheUtil.newLRUCache(10000, TimeUnit.SECONDS.toMillis(missingTtl));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SEC_KILL_VOUCHER_CHANNEL));
+        try {
+            loadAll();
+        } catch (Exception e) {
+            // 加载失败时在第一次访问时逐个加载
+            log.error("加载秒杀券失败！", e);
+        }
+    }
+
+    private void loadAll() {
+        long lastId = 0;
+        while (true) {
+            List<SecKillVoucher> list = secKillVoucherService.query()
+                    .select("voucher_id", "begin_time", "end_time")
+                    .gt("voucher_id", lastId)
+                    .orderByAsc("voucher_id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE)
+                    .list();
+            if (list.isEmpty()) {
+                break;
+            }
+            list.forEach(this::put);
+            lastId = list.get(list.size() - 1).getVoucherId();
+        }
+        log.info("秒杀券加载完成，数量：{}", vouchers.size());
+    }
+
+    /**
+     * 查询秒杀券元数据
+     * @param voucherId 优惠券id
+     * @return 只包含id、开始时间和结束时间的秒杀券，不存在返回null；返回的对象由所有请求共享，不能修改
+     */
+    public SecKillVoucher get(Long voucherId) {
+        SecKillVoucher voucher = vouchers.get(voucherId);
+        if (voucher != null) {
+            return voucher;
+        }
+        if (missing.containsKey(voucherId)) {
+            return null;
+        }
+        return load(voucherId);
+    }
+
+    /**
+     * 判断秒杀券是否已经加载到本节点，不查询数据库，用于在登录之前过滤不存在的id
+     * @param voucherId 优惠券id
+     * @return true代表是已知的秒杀券
+     */
+    public boolean contains(Long voucherId) {
+        return vouchers.containsKey(voucherId);
+    }
+
+    /**
+     * 新增或修改秒杀券的事务提交后写入本节点，并通知其他节点重新加载
+     * @param secKillVoucher 秒杀券
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecKillVoucherSaved(SecKillVoucher secKillVoucher) {
+        put(secKillVoucher);
+        missing.remove(secKillVoucher.getVoucherId());
+        stringRedisTemplate.convertAndSend(SEC_KILL_VOUCHER_CHANNEL, secKillVoucher.getVoucherId().toString());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        load(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+    }
+
+    private SecKillVoucher load(Long voucherId) {
+        SecKillVoucher voucher = secKillVoucherService.getById(voucherId);
+        if (voucher == null) {
+            vouchers.remove(voucherId);
+            missing.put(voucherId, Boolean.TRUE);
+            return null;
+        }
+        missing.remove(voucherId);
+        return put(voucher);
+    }
+
+    private SecKillVoucher put(SecKillVoucher voucher) {
+        SecKillVoucher meta = new SecKillVoucher()
+                .setVoucherId(voucher.getVoucherId())
+                .setBeginTime(voucher.getBeginTime())
+                .setEndTime(voucher.getEndTime());
+        vouchers.put(meta.getVoucherId(), meta);
+        return meta;
+    }
+}
@@ -0,0 +1,247 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.comment.utils.RedisConstants.*;
+
+/**
+ * 秒杀券分段库存
+ * 库存很多的秒杀券把库存平均拆分到K个段中，每个段的库存key和订单key使用相同的hash tag（secKill:stock:{voucherId:i}），
+ * 不同的段分布在不同的分片上，避免一个分片串行处理所有秒杀请求。
+ * 用户按userId路由到固定的段，只在该段的订单key中判断一人一单，因此一人一单仍然是精确的；
+ * 所在段库存不足时先保留占位，再依次从其他段扣减，全部不足时删除占位。
+ * 跨分片无法在一个Lua脚本中完成，从其他段扣减由多个脚本完成，占位保证扣减期间同一用户的请求不会重复下单。
+ * 分段数缓存在本地，秒杀券变更时（secKill:voucher频道）清除，下次使用时重新读取redis
+ */
+@Slf4j
+@Component
+public class SegmentedStock implements MessageListener {
+
+    // 新增秒杀券时的分段数，1代表不分段
+    @Value("${comment.seckill.segment.count:1}")
+    private int segmentCount;
+
+    // 库存少于该值的秒杀券不分段
+    @Value("${comment.seckill.segment.min-stock:1000}")
+    private int minStock;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisScripts redisScripts;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 优惠券id -> 分段数，分段数在新增秒杀券时确定
+    private final Map<Long, Integer> segments = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void subscribe() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SEC_KILL_VOUCHER_CHANNEL));
+    }
+
+    /**
+     * 新增秒杀券时写入redis中的库存，库存足够多时分段
+     * @param voucherId 优惠券id
+     * @param stock 库存
+     */
+    public void init(Long voucherId, int stock) {
+        int count = segmentCount > 1 && stock >= minStock ? segmentCount : 1;
+        if (count == 1) {
+            stringRedisTemplate.opsForValue().set(SEC_KILL_STOCK_KEY + voucherId, String.valueOf(stock));
+        } else {
+            long[] stocks = split(stock, count);
+            for (int i = 0; i < count; i++) {
+                stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(stocks[i]));
+            }
+            stringRedisTemplate.opsForValue().set(SEC_KILL_SEGMENTS_KEY + voucherId, String.valueOf(count));
+        }
+        segments.put(voucherId, count);
+    }
+
+    /**
+     * 查询秒杀券的分段数，第一次查询redis后保存在本地
+     * @param voucherId 优惠券id
+     * @return 分段数，1代表不分段
+     */
+    public int segments(Long voucherId) {
+        return segments.computeIfAbsent(voucherId, id -> {
+            String count = stringRedisTemplate.opsForValue().get(SEC_KILL_SEGMENTS_KEY + id);
+            return count == null ? 1 : Integer.parseInt(count);
+        });
+    }
+
+    public boolean isSegmented(Long voucherId) {
+        return segments(voucherId) > 1;
+    }
+
+    /**
+     * 秒杀券变更时清除本地缓存的分段数，例如新增秒杀券之前已经按不分段缓存了该优惠券
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        segments.remove(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 分段秒杀，返回值与seckill.lua相同
+     * @param voucherId 优惠券id，必须是分段的秒杀券
+     * @param userId 用户id
+     * @return 0代表成功，1代表库存不足，2代表用户已经购买过该优惠券
+     */
+    public Long secKill(Long voucherId, Long userId) {
+        int count = segments(voucherId);
+        int home = home(userId, count);
+        Long result = redisScripts.executeBatched(RedisScripts.SEGMENT_SEC_KILL,
+                Arrays.asList(stockKey(voucherId, home), orderKey(voucherId, home)), userId);
+        if (result == null || result != 3) {
+            return result == null ? 1L : result;
+        }
+
+        // 所在段库存不足，从下一个段开始依次扣减
+        for (int i = 1; i < count; i++) {
+            if (take(stockKey(voucherId, (home + i) % count), 1) == 1) {
+                return 0L;
+            }
+        }
+
+        // 全部不足，删除占位
+        stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+        return 1L;
+    }
+
+    /**
+     * 秒杀成功后后续步骤失败时归还库存和一人一单的占位，库存归还到用户所在的段
+     * 只有删除了占位才归还库存，重复调用不会多归还
+     * @param voucherId 优惠券id，必须是分段的秒杀券
+     * @param userId 用户id
+     */
+    public void rollback(Long voucherId, Long userId) {
+        int home = home(userId, segments(voucherId));
+        Long removed = stringRedisTemplate.opsForSet().remove(orderKey(voucherId, home), userId.toString());
+        if (removed != null && removed == 1) {
+            stringRedisTemplate.opsForValue().increment(stockKey(voucherId, home));
+        }
+    }
+
+    /**
+     * 补充库存，分段的秒杀券平均补充到每个段
+     * @param voucherId 优惠券id
+     * @param stock 补充的数量
+     */
+    public void addStock(Long voucherId, int stock) {
+        int count = segments(voucherId);
+        if (count == 1) {
+            stringRedisTemplate.opsForValue().increment(SEC_KILL_STOCK_KEY + voucherId, stock);
+            return;
+        }
+        long[] stocks = split(stock, count);
+        for (int i = 0; i < count; i++) {
+            if (stocks[i] > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), stocks[i]);
+            }
+        }
+    }
+
+    /**
+     * 对账：汇总所有段的剩余库存和订单数
+     * 开启rebalance时把剩余库存重新平均分配到每个段，只从多于平均值的段取出，其他段不会出现短暂的库存为0
+     * @param voucherId 优惠券id
+     * @param rebalance 是否重新分配剩余库存
+     * @return 分段数、每段的库存和订单数、剩余库存总数和订单总数
+     */
+    public Map<String, Object> reconcile(Long voucherId, boolean rebalance) {
+        int count = segments(voucherId);
+        long[] stocks = new long[count];
+        long[] orders = new long[count];
+        for (int i = 0; i < count; i++) {
+            String stockKey = count == 1 ? SEC_KILL_STOCK_KEY + voucherId : stockKey(voucherId, i);
+            String orderKey = count == 1 ? SEC_KILL_ORDER_KEY + voucherId : orderKey(voucherId, i);
+            String stock = stringRedisTemplate.opsForValue().get(stockKey);
+            Long size = stringRedisTemplate.opsForSet().size(orderKey);
+            stocks[i] = stock == null ? 0 : Long.parseLong(stock);
+            orders[i] = size == null ? 0 : size;
+        }
+        if (rebalance && count > 1) {
+            stocks = rebalance(voucherId, stocks);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("segments", count);
+        result.put("segmentStocks", stocks);
+        result.put("segmentOrders", orders);
+        result.put("stock", Arrays.stream(stocks).sum());
+        result.put("orders", Arrays.stream(orders).sum());
+        return result;
+    }
+
+    // 从多于平均值的段取出多余的库存，补充到少于平均值的段，返回分配后的库存
+    private long[] rebalance(Long voucherId, long[] stocks) {
+        long[] targets = split(Arrays.stream(stocks).sum(), stocks.length);
+        long taken = 0;
+        for (int i = 0; i < stocks.length; i++) {
+            if (stocks[i] > targets[i]) {
+                taken += take(stockKey(voucherId, i), stocks[i] - targets[i]);
+            }
+        }
+        // 读取之后各段的库存可能已经减少，取出的数量以实际为准
+        long[] result = new long[stocks.length];
+        for (int i = 0; i < stocks.length && taken > 0; i++) {
+            long delta = Math.min(taken, Math.max(targets[i] - stocks[i], 0));
+            if (delta > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, i), delta);
+                taken -= delta;
+            }
+        }
+        if (taken > 0) {
+            stringRedisTemplate.opsForValue().increment(stockKey(voucherId, 0), taken);
+        }
+        for (int i = 0; i < stocks.length; i++) {
+            String stock = stringRedisTemplate.opsForValue().get(stockKey(voucherId, i));
+            result[i] = stock == null ? 0 : Long.parseLong(stock);
+        }
+        log.info("秒杀券库存重新分配完成，voucherId = {}，stocks = {}", voucherId, Arrays.toString(result));
+        return result;
+    }
+
+    private long take(String stockKey, long count) {
+        Long taken = redisScripts.execute(RedisScripts.SEGMENT_TAKE, Collections.singletonList(stockKey), count);
+        return taken == null ? 0 : taken;
+    }
+
+    // 把total平均拆分为count份，余数分配给前面的段
+    static long[] split(long total, int count) {
+        long[] result = new long[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = total / count + (i < total % count ? 1 : 0);
+        }
+        return result;
+    }
+
+    static int home(Long userId, int count) {
+        return (int) Math.floorMod(userId, (long) count);
+    }
+
+    static String stockKey(Long voucherId, int segment) {
+        return SEC_KILL_STOCK_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+
+    static String orderKey(Long voucherId, int segment) {
+        return SEC_KILL_ORDER_KEY + "{" + voucherId + ":" + segment + "}";
+    }
+}
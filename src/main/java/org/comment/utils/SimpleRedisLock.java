@@ -1,9 +1,7 @@
 package org.comment.utils;
 
 import cn.hutool.core.lang.UUID;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
 
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -12,19 +10,15 @@ public class SimpleRedisLock implements ILock {
 
     private static final String KEY_PREFIX = "lock:";
     private static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
-    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
-    static {
-        UNLOCK_SCRIPT = new DefaultRedisScript<>();
-        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
-        UNLOCK_SCRIPT.setResultType(Long.class);
-    }
 
     private final String name;
     private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScripts redisScripts;
 
-    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate) {
+    public SimpleRedisLock(String name, StringRedisTemplate stringRedisTemplate, RedisScripts redisScripts) {
         this.name = name;
         this.stringRedisTemplate = stringRedisTemplate;
+        this.redisScripts = redisScripts;
     }
 
     @Override
@@ -41,8 +35,8 @@ public class SimpleRedisLock implements ILock {
     @Override
     public void unLock() {
         // 调用Lua脚本释放锁，保证释放锁操作的原子性
-        stringRedisTemplate.execute(
-                UNLOCK_SCRIPT,
+        redisScripts.execute(
+                RedisScripts.UNLOCK,
                 Collections.singletonList(KEY_PREFIX + this.name),
                 ID_PREFIX + Thread.currentThread().getId()
         );
@@ -0,0 +1,59 @@
+package org.comment.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 合并同一个key的并发调用
+ * 同一时刻只有第一个线程（leader）真正执行，其余线程阻塞等待leader的结果，执行完成后统一唤醒
+ * 注意：所有等待的线程拿到的是同一个返回对象
+ */
+public class SingleFlight {
+
+    // key -> 正在执行的调用
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * 执行调用，同一个key正在执行时等待其结果
+     * @param key 键
+     * @param supplier 真正执行的函数
+     * @return 执行结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> supplier) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, future);
+        if (inFlight != null) {
+            // 已经有线程在执行，等待其完成
+            try {
+                return (T) inFlight.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        // 当前线程是leader，执行调用并唤醒等待的线程
+        try {
+            T result = supplier.get();
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, future);
+        }
+    }
+
+    /**
+     * @return 正在执行的调用数量
+     */
+    public int inFlight() {
+        return calls.size();
+    }
+}
@@ -0,0 +1,101 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.comment.utils.RedisConstants.SEC_KILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 秒杀券售罄标记
+ * 库存不足时在本节点标记售罄，并通过Redis发布订阅通知所有节点，之后的秒杀请求在进程内直接拒绝，不访问redis和数据库。
+ * 补充库存时清除所有节点的标记；标记最多保留ttl秒，即使清除消息丢失，过期后的第一个请求也会重新检查库存
+ */
+@Slf4j
+@Component
+public class SoldOutMarker implements MessageListener {
+
+    // 标记售罄的消息前缀
+    private static final String MARK = "+";
+
+    // 清除标记的消息前缀
+    private static final String RESET = "-";
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    // 售罄标记的最长保留时间（秒）
+    @Value("${comment.seckill.sold-out.ttl:60}")
+    private long ttl;
+
+    // 优惠券id -> 标记售罄的时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SEC_KILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 判断优惠券是否已售罄
+     * @param voucherId 优惠券id
+     * @return true代表已售罄，直接拒绝请求
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > TimeUnit.SECONDS.toMillis(ttl)) {
+            soldOut.remove(voucherId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄，并通知其他节点
+     * @param voucherId 优惠券id
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.putIfAbsent(voucherId, System.currentTimeMillis()) == null) {
+            log.info("秒杀券已售罄，voucherId = {}", voucherId);
+            stringRedisTemplate.convertAndSend(SEC_KILL_SOLD_OUT_CHANNEL, MARK + voucherId);
+        }
+    }
+
+    /**
+     * 清除售罄标记，并通知其他节点，必须在库存补充之后调用
+     * @param voucherId 优惠券id
+     */
+    public void reset(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SEC_KILL_SOLD_OUT_CHANNEL, RESET + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        Long voucherId = Long.valueOf(body.substring(1));
+        if (body.startsWith(MARK)) {
+            soldOut.putIfAbsent(voucherId, System.currentTimeMillis());
+        } else if (body.startsWith(RESET)) {
+            soldOut.remove(voucherId);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package org.comment.utils;
+
+import org.comment.entity.VoucherOrder;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 秒杀订单的有界环形队列
+ * 预先分配容量个槽位，每个槽位用三个long保存订单id、用户id和优惠券id，入队时不创建对象；
+ * 每个槽位有一个序号，生产者和消费者通过CAS竞争位置、通过序号判断槽位是否可写/可读，不使用锁。
+ * 请求线程并发入队，因此支持多个生产者；队列满时offer立即返回false，由调用方拒绝请求并归还库存。
+ * 消费者没有数据时按等待策略等待：BUSY_SPIN自旋、YIELDING自旋后让出CPU、SLEEPING逐步退避到短暂休眠、BLOCKING阻塞等待生产者唤醒
+ */
+public class VoucherOrderRingBuffer {
+
+    public enum WaitStrategy {
+        BUSY_SPIN, YIELDING, SLEEPING, BLOCKING
+    }
+
+    // 自旋和让出CPU的次数
+    private static final int SPIN_TRIES = 100;
+
+    // SLEEPING策略每次休眠的最长时间
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final WaitStrategy waitStrategy;
+
+    // 槽位序号：等于位置时可写，等于位置+1时可读
+    private final AtomicLongArray sequences;
+
+    private final long[] orderIds;
+
+    private final long[] userIds;
+
+    private final long[] voucherIds;
+
+    // 下一个写入的位置
+    private final AtomicLong tail = new AtomicLong();
+
+    // 下一个读取的位置
+    private final AtomicLong head = new AtomicLong();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    // BLOCKING策略下正在等待的消费者数量
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final LongAdder offered = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder consumed = new LongAdder();
+
+    // 最大占用的槽位数
+    private final LongAccumulator highWatermark = new LongAccumulator(Long::max, 0);
+
+    /**
+     * @param capacity 容量，向上取整为2的幂
+     * @param waitStrategy 消费者的等待策略
+     */
+    public VoucherOrderRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("容量必须在1和2^30之间：" + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.waitStrategy = waitStrategy;
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.lazySet(i, i);
+        }
+        this.orderIds = new long[this.capacity];
+        this.userIds = new long[this.capacity];
+        this.voucherIds = new long[this.capacity];
+    }
+
+    /**
+     * 订单入队，不阻塞
+     * @return false代表队列已满
+     */
+    public boolean offer(long orderId, long userId, long voucherId) {
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    orderIds[index] = orderId;
+                    userIds[index] = userId;
+                    voucherIds[index] = voucherId;
+                    // 使用volatile写发布槽位，BLOCKING策略下保证随后读取waiters时消费者能看到该槽位
+                    sequences.set(index, position + 1);
+                    offered.increment();
+                    highWatermark.accumulate(position + 1 - head.get());
+                    if (waiters.get() > 0) {
+                        signal();
+                    }
+                    return true;
+                }
+            } else if (diff < 0) {
+                // 槽位还没有被消费，队列已满
+                rejected.increment();
+                return false;
+            }
+            // 其他生产者已经占用该位置，重试
+        }
+    }
+
+    /**
+     * 取出一个订单，不阻塞
+     * @return 订单，队列为空返回null
+     */
+    public VoucherOrder poll() {
+        while (true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - (position + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    VoucherOrder voucherOrder = new VoucherOrder();
+                    voucherOrder.setId(orderIds[index]);
+                    voucherOrder.setUserId(userIds[index]);
+                    voucherOrder.setVoucherId(voucherIds[index]);
+                    sequences.lazySet(index, position + capacity);
+                    consumed.increment();
+                    return voucherOrder;
+                }
+            } else if (diff < 0) {
+                // 槽位还没有写入，队列为空
+                return null;
+            }
+        }
+    }
+
+    /**
+     * 取出一个订单，队列为空时按等待策略等待
+     */
+    public VoucherOrder take() throws InterruptedException {
+        return await(false, 0);
+    }
+
+    /**
+     * 取出一个订单，队列为空时按等待策略最多等待timeout
+     * @return 订单，超时返回null
+     */
+    public VoucherOrder poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return await(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * 取出最多max个订单，不阻塞
+     * @return 取出的数量
+     */
+    public int drainTo(Collection<? super VoucherOrder> collection, int max) {
+        int count = 0;
+        VoucherOrder voucherOrder;
+        while (count < max && (voucherOrder = poll()) != null) {
+            collection.add(voucherOrder);
+            count++;
+        }
+        return count;
+    }
+
+    private VoucherOrder await(boolean timed, long deadline) throws InterruptedException {
+        int tries = 0;
+        while (true) {
+            VoucherOrder voucherOrder = poll();
+            if (voucherOrder != null) {
+                return voucherOrder;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            long remaining = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+            if (remaining <= 0) {
+                return null;
+            }
+            tries++;
+            switch (waitStrategy) {
+                case BUSY_SPIN:
+                    break;
+                case YIELDING:
+                    if (tries > SPIN_TRIES) {
+                        Thread.yield();
+                    }
+                    break;
+                case SLEEPING:
+                    if (tries > 2 * SPIN_TRIES) {
+                        LockSupport.parkNanos(Math.min(remaining, MAX_SLEEP_NANOS));
+                    } else if (tries > SPIN_TRIES) {
+                        Thread.yield();
+                    }
+                    break;
+                default:
+                    block(remaining);
+            }
+        }
+    }
+
+    private void block(long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            waiters.incrementAndGet();
+            try {
+                // 登记之后再检查一次，避免生产者在登记之前发布而错过唤醒
+                if (isEmpty()) {
+                    notEmpty.awaitNanos(nanos);
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isEmpty() {
+        long position = head.get();
+        return sequences.get((int) position & mask) != position + 1;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return 当前占用的槽位数，并发读写时为近似值
+     */
+    public long size() {
+        return Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return 容量、占用率、最大占用、入队/拒绝/取出的订单数
+     */
+    public Map<String, Object> stats() {
+        long size = size();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("capacity", capacity);
+        stats.put("waitStrategy", waitStrategy);
+        stats.put("size", size);
+        stats.put("occupancy", (double) size / capacity);
+        stats.put("highWatermark", highWatermark.get());
+        stats.put("offered", offered.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("consumed", consumed.sum());
+        return stats;
+    }
+}
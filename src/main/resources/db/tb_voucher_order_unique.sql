@@ -0,0 +1,9 @@
+-- 秒杀订单一人一单的唯一索引，执行后开启 comment.seckill.order-insert.unique-index
+-- 1.检查已有的重复订单，存在时先人工处理
+SELECT user_id, voucher_id, COUNT(*) AS cnt
+FROM tb_voucher_order
+GROUP BY user_id, voucher_id
+HAVING cnt > 1;
+
+-- 2.创建唯一索引
+ALTER TABLE tb_voucher_order ADD UNIQUE KEY uk_user_voucher (user_id, voucher_id);
@@ -0,0 +1,11 @@
+-- 缓存的key
+-- 字段和值交替排列
+-- 缓存不存在时不做任何操作，避免写入不完整的hash；
+-- 数据库中不存在时写入的空值标记（_flag为空字符串）也不更新，避免把空值变成只有部分字段的对象
+local flag = redis.call('HGET', KEYS[1], '_flag')
+if (flag == false or flag == '') then
+    return 0
+end
+-- 存在，只更新变化的字段
+redis.call('HSET', KEYS[1], unpack(ARGV))
+return 1
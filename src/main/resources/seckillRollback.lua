@@ -0,0 +1,17 @@
+-- 秒杀成功但订单没有进入队列时归还库存，删除用户的下单记录
+-- 1.参数列表
+-- 1.1 优惠券id
+local voucherId = ARGV[1]
+-- 1.2 用户id
+local userId = ARGV[2]
+
+-- 2.数据key
+local stockKey = 'secKill:stock:' .. voucherId
+local orderKey = 'secKill:voucherOrder:' .. voucherId
+
+-- 3.只有删除了下单记录才归还库存，重复调用不会多归还
+if (redis.call('SREM', orderKey, userId) == 1) then
+    redis.call('INCRBY', stockKey, 1)
+    return 1
+end
+return 0
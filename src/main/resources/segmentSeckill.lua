@@ -0,0 +1,25 @@
+-- 分段库存秒杀，KEYS[1]和KEYS[2]使用相同的hash tag，位于同一个分片
+-- 1.参数列表
+-- 1.1 用户所在段的库存key
+local stockKey = KEYS[1]
+-- 1.2 用户所在段的订单key
+local orderKey = KEYS[2]
+-- 1.3 用户id
+local userId = ARGV[1]
+
+-- 2.判断用户是否下单，一个用户只会路由到一个段，因此一人一单的判断是精确的
+if (redis.call('SISMEMBER', orderKey, userId) == 1) then
+    -- 用户已经下过单，返回2
+    return 2
+end
+
+-- 3.先占位，再扣减库存
+redis.call('SADD', orderKey, userId)
+local stock = tonumber(redis.call('GET', stockKey))
+if (stock ~= nil and stock > 0) then
+    redis.call('INCRBY', stockKey, -1)
+    return 0
+end
+
+-- 4.本段库存不足，保留占位，由调用方从其他段扣减，全部不足时删除占位
+return 3
@@ -0,0 +1,8 @@
+-- 从一个库存段中最多取出ARGV[1]个库存，返回实际取出的数量
+local stock = tonumber(redis.call('GET', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+local count = math.min(stock, tonumber(ARGV[1]))
+redis.call('INCRBY', KEYS[1], -count)
+return count
@@ -0,0 +1,36 @@
+-- 令牌桶，按时间补充令牌，令牌足够时扣减1个并返回1，否则返回0
+-- 1.参数列表
+-- 1.1 令牌桶key
+local key = KEYS[1]
+-- 1.2 每秒补充的令牌数
+local rate = tonumber(ARGV[1])
+-- 1.3 令牌桶容量
+local capacity = tonumber(ARGV[2])
+-- 1.4 当前时间（毫秒）
+local now = tonumber(ARGV[3])
+
+-- 2.读取剩余令牌和上次补充的时间，不存在时令牌桶是满的
+local bucket = redis.call('HMGET', key, 'tokens', 'ts')
+local tokens = tonumber(bucket[1])
+local ts = tonumber(bucket[2])
+if (tokens == nil or ts == nil) then
+    tokens = capacity
+    ts = now
+end
+
+-- 3.补充令牌，各节点的时钟不一致时不会倒退
+if (now > ts) then
+    tokens = math.min(capacity, tokens + (now - ts) * rate / 1000)
+    ts = now
+end
+
+-- 4.扣减令牌
+local allowed = 0
+if (tokens >= 1) then
+    tokens = tokens - 1
+    allowed = 1
+end
+redis.call('HMSET', key, 'tokens', tokens, 'ts', ts)
+-- 令牌桶补满之后就可以删除
+redis.call('PEXPIRE', key, math.ceil(capacity * 1000 / rate) + 1000)
+return allowed
@@ -0,0 +1,102 @@
+package org.comment.service.impl;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.comment.CommentApplicationTests;
+import org.comment.entity.VoucherOrder;
+import org.comment.mapper.VoucherOrderMapper;
+import org.comment.service.ISecKillVoucherService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.annotation.Resource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 创建订单的吞吐量对比：先查询再插入和依赖唯一索引的先扣库存再插入（不包含分布式锁的开销）
+ * 需要先执行db/tb_voucher_order_unique.sql；测试订单的用户id从USER_ID_BASE开始，结束后删除并恢复库存
+ */
+@Slf4j
+class VoucherOrderInsertTest extends CommentApplicationTests {
+
+    private static final long VOUCHER_ID = Long.getLong("voucher.id", 10L);
+
+    private static final long USER_ID_BASE = 9_000_000_000L;
+
+    private static final int THREADS = 20;
+
+    private static final int ORDERS_PER_THREAD = 200;
+
+    @Resource
+    private VoucherOrderWriter voucherOrderWriter;
+
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+
+    @Resource
+    private ISecKillVoucherService secKillVoucherService;
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.setField(voucherOrderWriter, "uniqueIndex", false);
+        int deleted = voucherOrderMapper.delete(new QueryWrapper<VoucherOrder>()
+                .eq("voucher_id", VOUCHER_ID).ge("user_id", USER_ID_BASE));
+        secKillVoucherService.update().setSql("stock = stock + " + deleted).eq("voucher_id", VOUCHER_ID).update();
+    }
+
+    @Test
+    void testThroughput() throws InterruptedException {
+        int total = THREADS * ORDERS_PER_THREAD;
+        secKillVoucherService.update().setSql("stock = stock + " + 2 * total).eq("voucher_id", VOUCHER_ID).update();
+
+        ReflectionTestUtils.setField(voucherOrderWriter, "uniqueIndex", false);
+        double countThenInsert = run(USER_ID_BASE);
+        ReflectionTestUtils.setField(voucherOrderWriter, "uniqueIndex", true);
+        double uniqueIndex = run(USER_ID_BASE + total);
+        log.info("{} orders: count-then-insert = {} orders/s, unique-index = {} orders/s",
+                total, (long) countThenInsert, (long) uniqueIndex);
+
+        // 重复下单不会插入，也不会扣减库存
+        Integer stock = secKillVoucherService.getById(VOUCHER_ID).getStock();
+        voucherOrderWriter.createVoucherOrder(order(USER_ID_BASE + total));
+        assertEquals(stock, secKillVoucherService.getById(VOUCHER_ID).getStock());
+    }
+
+    // 每个订单一个用户，并发创建订单，返回每秒创建的订单数
+    private double run(long userIdBase) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        long begin = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            long threadBase = userIdBase + (long) i * ORDERS_PER_THREAD;
+            executor.submit(() -> {
+                try {
+                    for (int j = 0; j < ORDERS_PER_THREAD; j++) {
+                        voucherOrderWriter.createVoucherOrder(order(threadBase + j));
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.MINUTES));
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        return THREADS * ORDERS_PER_THREAD * 1e9 / nanos;
+    }
+
+    private VoucherOrder order(long userId) {
+        VoucherOrder voucherOrder = new VoucherOrder();
+        voucherOrder.setId(userId);
+        voucherOrder.setUserId(userId);
+        voucherOrder.setVoucherId(VOUCHER_ID);
+        return voucherOrder;
+    }
+}
@@ -0,0 +1,83 @@
+package org.comment.service.impl;
+
+import org.comment.dto.Result;
+import org.comment.entity.SecKillVoucher;
+import org.comment.mapper.VoucherOrderMapper;
+import org.comment.service.ISecKillVoucherService;
+import org.comment.utils.SegmentedStock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 秒杀库存对账测试，redis和数据库都是mock，不需要启动容器
+ */
+class VoucherServiceImplTest {
+
+    private static final Long VOUCHER_ID = 10L;
+
+    private final ISecKillVoucherService secKillVoucherService = Mockito.mock(ISecKillVoucherService.class);
+
+    private final VoucherOrderMapper voucherOrderMapper = Mockito.mock(VoucherOrderMapper.class);
+
+    private final SegmentedStock segmentedStock = Mockito.mock(SegmentedStock.class);
+
+    private final VoucherServiceImpl voucherService = new VoucherServiceImpl();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(voucherService, "secKillVoucherService", secKillVoucherService);
+        ReflectionTestUtils.setField(voucherService, "voucherOrderMapper", voucherOrderMapper);
+        ReflectionTestUtils.setField(voucherService, "segmentedStock", segmentedStock);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testConsistent() {
+        // 数据库：库存92，订单8；redis：库存90，订单10，有2个订单还没有写入数据库
+        mock(92, 8L, 90L, 10L);
+        Result result = voucherService.reconcileSecKillStock(VOUCHER_ID, true);
+
+        assertTrue(result.getSuccess());
+        Map<String, Object> data = (Map<String, Object>) result.getData();
+        assertEquals(92, data.get("dbStock"));
+        assertEquals(8L, data.get("dbOrders"));
+        assertEquals(2L, data.get("pendingOrders"));
+        assertEquals(true, data.get("consistent"));
+        Mockito.verify(segmentedStock).reconcile(VOUCHER_ID, true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testInconsistent() {
+        // redis中多出一个库存，例如归还库存时重复归还
+        mock(92, 8L, 91L, 10L);
+        Map<String, Object> data = (Map<String, Object>) voucherService.reconcileSecKillStock(VOUCHER_ID, false).getData();
+        assertEquals(false, data.get("consistent"));
+    }
+
+    @Test
+    void testNotExists() {
+        Result result = voucherService.reconcileSecKillStock(VOUCHER_ID, false);
+        assertFalse(result.getSuccess());
+        Mockito.verifyNoInteractions(segmentedStock);
+    }
+
+    private void mock(int dbStock, long dbOrders, long redisStock, long redisOrders) {
+        Mockito.when(secKillVoucherService.getById(VOUCHER_ID))
+                .thenReturn(new SecKillVoucher().setVoucherId(VOUCHER_ID).setStock(dbStock));
+        Mockito.when(voucherOrderMapper.selectCount(ArgumentMatchers.any())).thenReturn(dbOrders);
+        Map<String, Object> reconciled = new LinkedHashMap<>();
+        reconciled.put("stock", redisStock);
+        reconciled.put("orders", redisOrders);
+        Mockito.when(segmentedStock.reconcile(ArgumentMatchers.eq(VOUCHER_ID), ArgumentMatchers.anyBoolean()))
+                .thenReturn(reconciled);
+    }
+}
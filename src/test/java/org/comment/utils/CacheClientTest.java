@@ -0,0 +1,150 @@
+package org.comment.utils;
+
+import org.comment.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.comment.utils.RedisConstants.CACHE_SHOP_HASH_KEY;
+import static org.comment.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存未命中时查询数据库的测试：redis由mock模拟，缓存中都不存在数据
+ * 布隆过滤器、数据库并发限制和统计使用真实的实现
+ */
+class CacheClientTest {
+
+    private static final byte[] ENCODED = "shop".getBytes();
+
+    private final CacheClient cacheClient = new CacheClient();
+
+    private final CacheBloomFilters cacheBloomFilters = new CacheBloomFilters();
+
+    private final ValueOperations<String, byte[]> byteValueOperations = mock(ValueOperations.class);
+
+    private final HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+
+    // 查询数据库的次数
+    private final AtomicInteger dbQueries = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        RedisTemplate<String, byte[]> byteRedisTemplate = mock(RedisTemplate.class);
+        Mockito.when(byteRedisTemplate.opsForValue()).thenReturn(byteValueOperations);
+
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        Mockito.when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        // 互斥锁总是获取成功
+        Mockito.when(valueOperations.setIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.any())).thenReturn(true);
+
+        CacheCodecs cacheCodecs = Mockito.mock(CacheCodecs.class);
+        Mockito.when(cacheCodecs.encode(ArgumentMatchers.any())).thenReturn(ENCODED);
+        Mockito.when(cacheCodecs.empty()).thenReturn(new byte[0]);
+
+        CacheTtlPolicy cacheTtlPolicy = Mockito.mock(CacheTtlPolicy.class);
+        Mockito.when(cacheTtlPolicy.seconds(ArgumentMatchers.anyString(), ArgumentMatchers.anyLong(), ArgumentMatchers.any()))
+                .thenReturn(60L);
+
+        HotKeyDetector hotKeyDetector = Mockito.mock(HotKeyDetector.class);
+        Mockito.when(hotKeyDetector.read(ArgumentMatchers.anyString(), ArgumentMatchers.<Supplier<Object>>any()))
+                .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
+
+        CacheMetrics cacheMetrics = new CacheMetrics();
+        ReflectionTestUtils.setField(cacheMetrics, "prefixes", new String[]{CACHE_SHOP_KEY, CACHE_SHOP_HASH_KEY});
+        cacheMetrics.init();
+
+        CacheFallbackLimiter cacheFallbackLimiter = new CacheFallbackLimiter();
+        ReflectionTestUtils.setField(cacheFallbackLimiter, "defaultMaxConcurrent", 10);
+        ReflectionTestUtils.setField(cacheFallbackLimiter, "limits", new String[0]);
+        ReflectionTestUtils.setField(cacheFallbackLimiter, "waitMillis", 100L);
+        cacheFallbackLimiter.init();
+
+        // 店铺的布隆过滤器中没有任何id，判断不存在的请求每秒放行1个
+        ReflectionTestUtils.setField(cacheBloomFilters, "fpp", 0.01);
+        ReflectionTestUtils.setField(cacheBloomFilters, "expectedInsertions", 1000L);
+        ReflectionTestUtils.setField(cacheBloomFilters, "missPassPerSecond", 1);
+        cacheBloomFilters.rebuild(CACHE_SHOP_KEY, 0, consumer -> { });
+        cacheBloomFilters.alias(CACHE_SHOP_HASH_KEY, CACHE_SHOP_KEY);
+
+        ReflectionTestUtils.setField(cacheClient, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(cacheClient, "byteRedisTemplate", byteRedisTemplate);
+        ReflectionTestUtils.setField(cacheClient, "cacheCodecs", cacheCodecs);
+        ReflectionTestUtils.setField(cacheClient, "nearCache", Mockito.mock(NearCache.class));
+        ReflectionTestUtils.setField(cacheClient, "cacheBloomFilters", cacheBloomFilters);
+        ReflectionTestUtils.setField(cacheClient, "cacheTtlPolicy", cacheTtlPolicy);
+        ReflectionTestUtils.setField(cacheClient, "cacheFallbackLimiter", cacheFallbackLimiter);
+        ReflectionTestUtils.setField(cacheClient, "cacheMetrics", cacheMetrics);
+        ReflectionTestUtils.setField(cacheClient, "hotKeyDetector", hotKeyDetector);
+        ReflectionTestUtils.setField(cacheClient, "clientSideCache", Mockito.mock(ClientSideCache.class));
+    }
+
+    @Test
+    void testPassThroughMiss() {
+        // 布隆过滤器遗漏了id=1，放行的请求查询数据库后写入redis，并补充到过滤器中
+        Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, 1L, Shop.class, this::shop, 30L, TimeUnit.MINUTES);
+        assertEquals(1L, shop.getId());
+        assertEquals(1, dbQueries.get());
+        Mockito.verify(byteValueOperations).set(CACHE_SHOP_KEY + 1, ENCODED, 60L, TimeUnit.SECONDS);
+        assertTrue(cacheBloomFilters.mightContain(CACHE_SHOP_KEY, 1L));
+
+        // 数据库中不存在时缓存空值
+        assertNull(cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, 1L, Shop.class, id -> null, 30L, TimeUnit.MINUTES));
+        Mockito.verify(byteValueOperations).set(ArgumentMatchers.eq(CACHE_SHOP_KEY + 1),
+                ArgumentMatchers.argThat(bytes -> bytes.length == 0), ArgumentMatchers.eq(60L), ArgumentMatchers.eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testMutexMiss() {
+        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, 2L, Shop.class, this::shop, 30L, TimeUnit.MINUTES);
+        assertEquals(2L, shop.getId());
+        assertEquals(1, dbQueries.get());
+        Mockito.verify(byteValueOperations).set(CACHE_SHOP_KEY + 2, ENCODED, 60L, TimeUnit.SECONDS);
+        assertTrue(cacheBloomFilters.mightContain(CACHE_SHOP_KEY, 2L));
+    }
+
+    @Test
+    void testFieldsMiss() {
+        Mockito.when(hashOperations.multiGet(ArgumentMatchers.anyString(), ArgumentMatchers.anyCollection()))
+                .thenReturn(Arrays.asList(null, null));
+
+        // hash前缀使用店铺的布隆过滤器，查询数据库后补充到店铺的过滤器中
+        Shop shop = cacheClient.queryFields(CACHE_SHOP_HASH_KEY, 3L, Shop.class, Collections.singletonList("name"),
+                this::shop, 30L, TimeUnit.MINUTES);
+        assertEquals("shop-3", shop.getName());
+        assertNull(shop.getId());
+        assertEquals(1, dbQueries.get());
+        assertTrue(cacheBloomFilters.mightContain(CACHE_SHOP_KEY, 3L));
+
+        // 同一秒内放行的请求数已用完，过滤器中不存在的id直接返回，不访问redis和数据库
+        assertNull(cacheClient.queryFields(CACHE_SHOP_HASH_KEY, 4L, Shop.class, Collections.singletonList("name"),
+                this::shop, 30L, TimeUnit.MINUTES));
+        assertEquals(1, dbQueries.get());
+        Mockito.verify(hashOperations, Mockito.times(1)).multiGet(ArgumentMatchers.anyString(), ArgumentMatchers.anyCollection());
+    }
+
+    private Shop shop(Long id) {
+        dbQueries.incrementAndGet();
+        return new Shop().setId(id).setName("shop-" + id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T mock(Class<?> type) {
+        return (T) Mockito.mock(type);
+    }
+}
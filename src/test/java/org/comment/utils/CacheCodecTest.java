@@ -0,0 +1,87 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.comment.entity.Blog;
+import org.comment.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存序列化方式的正确性测试与序列化结果大小对比
+ */
+@Slf4j
+class CacheCodecTest {
+
+    private final CacheCodec json = new JsonCacheCodec();
+
+    private final CacheCodec binary = new BinaryCacheCodec();
+
+    private Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+
+    private Blog blog() {
+        return new Blog()
+                .setId(4L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>男朋友给不了的浪漫要学会自己给🍒<br/>")
+                .setLiked(1)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+    }
+
+    @Test
+    void testRoundTrip() {
+        for (CacheCodec codec : new CacheCodec[]{json, binary}) {
+            Shop shop = shop();
+            byte[] bytes = codec.encode(shop);
+            assertTrue(codec.canDecode(bytes));
+            assertEquals(shop, codec.decode(bytes, Shop.class));
+
+            Blog blog = blog();
+            assertEquals(blog, codec.decode(codec.encode(blog), Blog.class));
+        }
+    }
+
+    @Test
+    void testFormatDetection() {
+        byte[] bytes = binary.encode(shop());
+        assertFalse(json.canDecode(bytes));
+        assertFalse(binary.canDecode(json.encode(shop())));
+        // 类结构不同时无法反序列化
+        assertNull(binary.decode(bytes, Blog.class));
+    }
+
+    @Test
+    void testSize() {
+        // 二进制格式不包含字段名，序列化结果比JSON小
+        for (Object value : new Object[]{shop(), blog()}) {
+            int jsonSize = json.encode(value).length;
+            int binarySize = binary.encode(value).length;
+            log.info("{}: json = {} bytes, binary = {} bytes", value.getClass().getSimpleName(), jsonSize, binarySize);
+            assertTrue(binarySize < jsonSize);
+        }
+    }
+}
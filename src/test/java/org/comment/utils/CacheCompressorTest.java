@@ -0,0 +1,76 @@
+package org.comment.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.comment.entity.Blog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 缓存数据压缩的正确性测试
+ */
+@Slf4j
+class CacheCompressorTest {
+
+    private final CacheCompressor compressor = new CacheCompressor();
+
+    private final CacheCodec json = new JsonCacheCodec();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(compressor, "enabled", true);
+        ReflectionTestUtils.setField(compressor, "threshold", 1024);
+    }
+
+    private Blog blog() {
+        return new Blog()
+                .setId(4L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent(StrUtil.repeat("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>", 100))
+                .setLiked(1)
+                .setComments(104);
+    }
+
+    @Test
+    void testRoundTrip() {
+        byte[] bytes = json.encode(blog());
+        byte[] compressed = compressor.compress(bytes);
+        assertEquals(CacheCompressor.COMPRESSED_FORMAT, compressed[0]);
+        assertTrue(compressed.length < bytes.length);
+        assertArrayEquals(bytes, compressor.decompress(compressed));
+        assertEquals(blog(), json.decode(compressor.decompress(compressed), Blog.class));
+        log.info("Blog: {} bytes -> {} bytes", bytes.length, compressed.length);
+    }
+
+    @Test
+    void testSkip() {
+        // 小于阈值的数据不压缩
+        byte[] small = json.encode(new Blog().setId(1L).setTitle("title"));
+        assertSame(small, compressor.compress(small));
+
+        // 压缩后没有变小的数据保留原数据
+        byte[] random = new byte[2048];
+        new Random(1).nextBytes(random);
+        random[0] = '{';
+        assertSame(random, compressor.compress(random));
+
+        // 未压缩的数据直接返回
+        assertSame(small, compressor.decompress(small));
+        assertEquals(0, compressor.decompress(new byte[0]).length);
+    }
+
+    @Test
+    void testCorrupted() {
+        byte[] compressed = compressor.compress(json.encode(blog()));
+        assertNull(compressor.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+}
@@ -0,0 +1,112 @@
+package org.comment.utils;
+
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 客户端缓存测试，需要本地启动redis 6以上（redis-server --port 6379），未启动时跳过
+ */
+@Slf4j
+class ClientSideCacheTest {
+
+    private static final String KEY = "cache:shop:client-side-test";
+
+    private static final int ROUNDS = 10000;
+
+    private final ClientSideCache clientSideCache = new ClientSideCache();
+
+    private RedisClient writerClient;
+
+    private StatefulRedisConnection<String, String> writer;
+
+    @BeforeEach
+    void setUp() {
+        RedisProperties redisProperties = new RedisProperties();
+        redisProperties.setHost(System.getProperty("redis.host", "localhost"));
+        redisProperties.setPort(Integer.getInteger("redis.port", 6379));
+        try {
+            writerClient = RedisClient.create(RedisURI.create(redisProperties.getHost(), redisProperties.getPort()));
+            writer = writerClient.connect();
+        } catch (Exception e) {
+            writerClient.shutdown();
+            assumeTrue(false, "本地redis未启动");
+        }
+        ReflectionTestUtils.setField(clientSideCache, "enabled", true);
+        ReflectionTestUtils.setField(clientSideCache, "prefixes", new String[]{"cache:shop:"});
+        ReflectionTestUtils.setField(clientSideCache, "maximumSize", 1000);
+        ReflectionTestUtils.setField(clientSideCache, "ttl", 600L);
+        ReflectionTestUtils.setField(clientSideCache, "redisProperties", redisProperties);
+        clientSideCache.init();
+        assumeTrue((Boolean) clientSideCache.stats().get("tracking"), "redis版本不支持CLIENT TRACKING");
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.sync().del(KEY);
+            writer.close();
+            writerClient.shutdown();
+        }
+        clientSideCache.shutdown();
+    }
+
+    @Test
+    void testRoundTripsSaved() {
+        writer.sync().set(KEY, "v1");
+        long begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals("v1", new String(clientSideCache.get(KEY), StandardCharsets.UTF_8));
+        }
+        long cachedNanos = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            writer.sync().get(KEY);
+        }
+        long redisNanos = System.nanoTime() - begin;
+
+        // 只有第一次读取访问redis
+        assertEquals(1L, clientSideCache.stats().get("misses"));
+        assertEquals((long) ROUNDS - 1, clientSideCache.stats().get("hits"));
+        log.info("{} reads: client-side cache = {}ms, redis = {}ms, round trips saved = {}",
+                ROUNDS, TimeUnit.NANOSECONDS.toMillis(cachedNanos), TimeUnit.NANOSECONDS.toMillis(redisNanos),
+                clientSideCache.stats().get("hits"));
+    }
+
+    @Test
+    void testInvalidation() throws InterruptedException {
+        writer.sync().set(KEY, "v1");
+        assertEquals("v1", new String(clientSideCache.get(KEY), StandardCharsets.UTF_8));
+
+        // 其他客户端修改后，本地副本在收到失效消息后删除
+        long invalidations = (Long) clientSideCache.stats().get("invalidations");
+        long begin = System.nanoTime();
+        writer.sync().set(KEY, "v2");
+        while ((Long) clientSideCache.stats().get("invalidations") == invalidations) {
+            assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(1), "1秒内没有收到失效消息");
+            Thread.sleep(0, 100_000);
+        }
+        log.info("invalidation latency = {}us", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+        assertEquals("v2", new String(clientSideCache.get(KEY), StandardCharsets.UTF_8));
+
+        // 删除后不再返回旧值
+        writer.sync().del(KEY);
+        begin = System.nanoTime();
+        while (clientSideCache.get(KEY) != null) {
+            assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(1), "1秒内没有收到失效消息");
+        }
+    }
+}
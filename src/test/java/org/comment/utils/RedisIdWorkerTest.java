@@ -0,0 +1,71 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.comment.CommentApplicationTests;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.annotation.Resource;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * id生成器的吞吐量对比：每个id一次INCR和号段模式
+ */
+@Slf4j
+class RedisIdWorkerTest extends CommentApplicationTests {
+
+    private static final int THREADS = 50;
+
+    private static final int IDS_PER_THREAD = 2000;
+
+    @Resource
+    private RedisIdWorker redisIdWorker;
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.setField(redisIdWorker, "segmentEnabled", false);
+    }
+
+    @Test
+    void testThroughput() throws InterruptedException {
+        ReflectionTestUtils.setField(redisIdWorker, "segmentEnabled", false);
+        double incr = run("benchmark");
+        ReflectionTestUtils.setField(redisIdWorker, "segmentEnabled", true);
+        double segment = run("benchmark");
+        log.info("{} threads x {} ids: incr = {} ids/s, segment = {} ids/s, speedup = {}",
+                THREADS, IDS_PER_THREAD, (long) incr, (long) segment, String.format("%.1f", segment / incr));
+    }
+
+    // 并发生成id，检查唯一性，返回每秒生成的id数
+    private double run(String keyPrefix) throws InterruptedException {
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        long begin = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            executor.submit(() -> {
+                try {
+                    for (int j = 0; j < IDS_PER_THREAD; j++) {
+                        ids.add(redisIdWorker.nextId(keyPrefix));
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        assertTrue(latch.await(5, TimeUnit.MINUTES));
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+        assertEquals(THREADS * IDS_PER_THREAD, ids.size());
+        return THREADS * IDS_PER_THREAD * 1e9 / nanos;
+    }
+}
@@ -0,0 +1,160 @@
+package org.comment.utils;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.RedisScriptingCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Lua脚本注册表测试，不需要redis：加载失败时在第一次收到NOSCRIPT时加载
+ * redis连接由mock模拟；批量执行不启动发送线程，由测试线程调用flush，保证一批中调用的顺序
+ */
+class RedisScriptsTest {
+
+    private static final RedisSystemException NO_SCRIPT = new RedisSystemException("NOSCRIPT No matching script",
+            new RuntimeException("NOSCRIPT No matching script. Please use EVAL."));
+
+    private final StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+
+    private final RedisScriptingCommands scriptingCommands = Mockito.mock(RedisScriptingCommands.class);
+
+    @Test
+    void testShaMatchesSpring() {
+        RedisScripts redisScripts = new RedisScripts();
+        redisScripts.init();
+        Map<String, Object> stats = redisScripts.stats();
+        for (String name : new String[]{RedisScripts.SEC_KILL, RedisScripts.SEC_KILL_BY_STREAM, RedisScripts.SEGMENT_SEC_KILL,
+                RedisScripts.SEGMENT_TAKE, RedisScripts.HASH_PATCH, RedisScripts.TOKEN_BUCKET, RedisScripts.UNLOCK,
+                RedisScripts.REENTRANT_TRY_LOCK, RedisScripts.REENTRANT_UNLOCK}) {
+            // EVALSHA使用的sha与redis和DefaultRedisScript计算的一致
+            DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+            script.setLocation(new ClassPathResource(name + ".lua"));
+            @SuppressWarnings("unchecked")
+            Map<String, Object> scriptStats = (Map<String, Object>) stats.get(name);
+            assertEquals(script.getSha1(), scriptStats.get("sha"));
+            assertEquals(0L, scriptStats.get("loads"));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> redisScripts.execute("missing", Collections.emptyList()));
+    }
+
+    @Test
+    void testNoScriptReload() {
+        RedisScripts redisScripts = redisScripts(false);
+        // redis重启后第一次EVALSHA返回NOSCRIPT，重新加载后重试成功
+        Mockito.when(evalSha()).thenThrow(NO_SCRIPT).thenReturn(0L);
+
+        assertEquals(0L, redisScripts.execute(RedisScripts.SEC_KILL, Collections.singletonList("k"), 1L));
+        Mockito.verify(scriptingCommands, Mockito.times(1)).scriptLoad(ArgumentMatchers.any());
+        assertEquals(1L, scriptStats(redisScripts, RedisScripts.SEC_KILL).get("loads"));
+
+        // 重新加载后仍然失败的错误直接抛出，不再重试
+        Mockito.when(evalSha()).thenThrow(NO_SCRIPT);
+        assertThrows(RedisSystemException.class,
+                () -> redisScripts.execute(RedisScripts.SEC_KILL, Collections.singletonList("k"), 1L));
+        Mockito.verify(scriptingCommands, Mockito.times(2)).scriptLoad(ArgumentMatchers.any());
+    }
+
+    @Test
+    void testPartialPipelineFailure() throws Exception {
+        RedisScripts redisScripts = redisScripts(true);
+        // 第一个调用成功，第二个调用报错，第三个调用收到NOSCRIPT，pipeline整体抛出RedisPipelineException
+        RedisSystemException error = new RedisSystemException("ERR boom", new RuntimeException("ERR boom"));
+        Mockito.when(stringRedisTemplate.executePipelined(ArgumentMatchers.<RedisCallback<Object>>any()))
+                .thenThrow(new RedisPipelineException("pipeline failed", Arrays.asList(0L, error, NO_SCRIPT)));
+        Mockito.when(evalSha()).thenThrow(NO_SCRIPT).thenReturn(1L);
+
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(CompletableFuture.supplyAsync(() ->
+                    redisScripts.executeBatched(RedisScripts.SEC_KILL, Collections.singletonList("k"), 1L)));
+            awaitQueued(redisScripts, i + 1);
+        }
+        flush(redisScripts);
+
+        // 成功的调用不受其他调用失败的影响，报错的调用不重试，NOSCRIPT的调用重新加载后单独执行
+        assertEquals(0L, results.get(0).get(1, TimeUnit.SECONDS));
+        ExecutionException e = assertThrows(ExecutionException.class, () -> results.get(1).get(1, TimeUnit.SECONDS));
+        assertSame(error, e.getCause());
+        assertEquals(1L, results.get(2).get(1, TimeUnit.SECONDS));
+        Mockito.verify(scriptingCommands, Mockito.times(1)).scriptLoad(ArgumentMatchers.any());
+        Mockito.verify(stringRedisTemplate, Mockito.times(1)).executePipelined(ArgumentMatchers.<RedisCallback<Object>>any());
+    }
+
+    @Test
+    void testBatchTimeout() {
+        RedisScripts redisScripts = redisScripts(true);
+        ReflectionTestUtils.setField(redisScripts, "timeoutMillis", 50L);
+
+        // 没有发送线程处理，等待超时后调用方收到异常
+        assertThrows(IllegalStateException.class,
+                () -> redisScripts.executeBatched(RedisScripts.SEC_KILL, Collections.singletonList("k"), 1L));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> batch = (Map<String, Object>) redisScripts.stats().get("batch");
+        assertEquals(1L, batch.get("timeouts"));
+
+        // 已经超时取消的调用不会再发送
+        flush(redisScripts);
+        Mockito.verify(stringRedisTemplate, Mockito.never()).executePipelined(ArgumentMatchers.<RedisCallback<Object>>any());
+    }
+
+    // 不连接redis初始化，batched为true时只开启批量执行，不启动发送线程
+    private RedisScripts redisScripts(boolean batched) {
+        RedisScripts redisScripts = new RedisScripts();
+        redisScripts.init();
+        RedisConnection connection = Mockito.mock(RedisConnection.class);
+        Mockito.when(connection.scriptingCommands()).thenReturn(scriptingCommands);
+        Mockito.when(stringRedisTemplate.execute(ArgumentMatchers.<RedisCallback<Object>>any()))
+                .thenAnswer(invocation -> invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection));
+        ReflectionTestUtils.setField(redisScripts, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(redisScripts, "timeoutMillis", 1000L);
+        ReflectionTestUtils.setField(redisScripts, "running", batched);
+        return redisScripts;
+    }
+
+    private Long evalSha() {
+        return scriptingCommands.evalSha(ArgumentMatchers.anyString(), ArgumentMatchers.eq(ReturnType.INTEGER),
+                ArgumentMatchers.anyInt(), ArgumentMatchers.<byte[]>any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> scriptStats(RedisScripts redisScripts, String name) {
+        return (Map<String, Object>) redisScripts.stats().get(name);
+    }
+
+    private static BlockingQueue<?> queue(RedisScripts redisScripts) {
+        return (BlockingQueue<?>) ReflectionTestUtils.getField(redisScripts, "calls");
+    }
+
+    private static void awaitQueued(RedisScripts redisScripts, int size) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (queue(redisScripts).size() < size) {
+            assertTrue(System.currentTimeMillis() < deadline, "调用没有进入队列");
+            Thread.yield();
+        }
+    }
+
+    // 代替发送线程，把队列中的调用作为一批发送
+    private static void flush(RedisScripts redisScripts) {
+        List<Object> batch = new ArrayList<>();
+        queue(redisScripts).drainTo(batch);
+        ReflectionTestUtils.invokeMethod(redisScripts, "flush", batch);
+    }
+}
@@ -0,0 +1,140 @@
+package org.comment.utils;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 秒杀准入控制的本节点令牌桶测试，不开启集群令牌桶，不需要redis
+ */
+class SecKillAdmissionTest {
+
+    @Test
+    void testBurst() {
+        // 速率很低时，短时间内最多放行突发容量个请求
+        SecKillAdmission.TokenBucket bucket = new SecKillAdmission.TokenBucket(1, 10);
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (bucket.tryAcquire()) {
+                admitted++;
+            }
+        }
+        assertEquals(10, admitted);
+    }
+
+    @Test
+    void testRefill() throws InterruptedException {
+        SecKillAdmission.TokenBucket bucket = new SecKillAdmission.TokenBucket(100, 1);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        // 10ms补充一个令牌
+        TimeUnit.MILLISECONDS.sleep(20);
+        assertTrue(bucket.tryAcquire());
+    }
+
+    @Test
+    void testConcurrent() throws InterruptedException {
+        SecKillAdmission.TokenBucket bucket = new SecKillAdmission.TokenBucket(1, 1000);
+        AtomicInteger admitted = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch latch = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            pool.submit(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    if (bucket.tryAcquire()) {
+                        admitted.incrementAndGet();
+                    }
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        pool.shutdown();
+        // 并发时不会多放行，测试期间最多补充几个令牌
+        assertTrue(admitted.get() >= 1000 && admitted.get() <= 1010, "admitted = " + admitted.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testVoucherRates() {
+        SecKillAdmission admission = admission();
+        for (int i = 0; i < 100; i++) {
+            admission.tryAcquire(1L);
+            admission.tryAcquire(2L);
+        }
+        Map<Long, Map<String, Object>> vouchers = (Map<Long, Map<String, Object>>) admission.stats().get("vouchers");
+        assertEquals(10L, vouchers.get(1L).get("admitted"));
+        assertEquals(90L, vouchers.get(1L).get("localRejected"));
+        // 按优惠券配置的速率是默认的一半，突发容量也按比例减半
+        assertEquals(5L, vouchers.get(2L).get("admitted"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testUnknownVoucher() {
+        // 不是已知的秒杀券时放行，不创建令牌桶和计数
+        SecKillAdmission admission = admission();
+        for (long voucherId = 100; voucherId < 10_000; voucherId++) {
+            assertTrue(admission.tryAcquire(voucherId));
+        }
+        Map<Long, Map<String, Object>> vouchers = (Map<Long, Map<String, Object>>) admission.stats().get("vouchers");
+        assertTrue(vouchers.isEmpty());
+        assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(admission, "buckets")).isEmpty());
+    }
+
+    @Test
+    void testInterceptor() throws Exception {
+        SecKillAdmission admission = admission();
+        SecKillAdmissionInterceptor interceptor = new SecKillAdmissionInterceptor(admission);
+        for (String id : new String[]{"abc", "99999999999999999999", "9223372036854775808", "1234567890123456789012345"}) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            assertFalse(interceptor.preHandle(new MockHttpServletRequest("POST", "/voucher-order/seckill/" + id), response, null));
+            assertEquals(400, response.getStatus(), "id = " + id);
+        }
+
+        // 超出突发容量后返回429
+        int status = 200;
+        for (int i = 0; i < 11 && status == 200; i++) {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            interceptor.preHandle(new MockHttpServletRequest("POST", "/voucher-order/seckill/1"), response, null);
+            status = response.getStatus();
+        }
+        assertEquals(429, status);
+    }
+
+    @Test
+    void testDisabled() {
+        SecKillAdmission admission = new SecKillAdmission();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(admission.tryAcquire(1L));
+        }
+    }
+
+    // 本节点每秒1个请求，突发10个，优惠券2的速率减半；只有优惠券1和2是已知的秒杀券
+    private static SecKillAdmission admission() {
+        SecKillVoucherCache secKillVoucherCache = Mockito.mock(SecKillVoucherCache.class);
+        Mockito.when(secKillVoucherCache.contains(ArgumentMatchers.anyLong()))
+                .thenAnswer(invocation -> invocation.<Long>getArgument(0) <= 2);
+        SecKillAdmission admission = new SecKillAdmission();
+        ReflectionTestUtils.setField(admission, "secKillVoucherCache", secKillVoucherCache);
+        ReflectionTestUtils.setField(admission, "enabled", true);
+        ReflectionTestUtils.setField(admission, "defaultRate", 1.0);
+        ReflectionTestUtils.setField(admission, "defaultBurst", 10);
+        ReflectionTestUtils.setField(admission, "rates", new String[]{"2=0.5"});
+        ReflectionTestUtils.setField(admission, "clusterRates", new String[0]);
+        admission.init();
+        return admission;
+    }
+}
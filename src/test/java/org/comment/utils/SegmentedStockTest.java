@@ -0,0 +1,229 @@
+package org.comment.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.comment.utils.RedisConstants.SEC_KILL_SEGMENTS_KEY;
+import static org.comment.utils.RedisConstants.SEC_KILL_VOUCHER_CHANNEL;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 分段库存的拆分、路由、跨段扣减、归还和对账测试
+ * redis的字符串、集合和两个Lua脚本由内存中的map模拟，不需要redis
+ */
+class SegmentedStockTest {
+
+    private static final Long VOUCHER_ID = 10L;
+
+    // 模拟redis中的字符串和集合
+    private final Map<String, String> values = new HashMap<>();
+
+    private final Map<String, Set<String>> sets = new HashMap<>();
+
+    private SegmentedStock segmentedStock;
+
+    @BeforeEach
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class, this::value);
+        SetOperations<String, String> setOperations = mock(SetOperations.class, this::set);
+        Mockito.when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+
+        segmentedStock = new SegmentedStock();
+        ReflectionTestUtils.setField(segmentedStock, "segmentCount", 4);
+        ReflectionTestUtils.setField(segmentedStock, "minStock", 1);
+        ReflectionTestUtils.setField(segmentedStock, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(segmentedStock, "redisScripts", Mockito.mock(RedisScripts.class, this::script));
+    }
+
+    @Test
+    void testSplit() {
+        assertArrayEquals(new long[]{4, 3, 3}, SegmentedStock.split(10, 3));
+        assertArrayEquals(new long[]{1, 1, 0, 0}, SegmentedStock.split(2, 4));
+        assertEquals(100_001, Arrays.stream(SegmentedStock.split(100_001, 16)).sum());
+    }
+
+    @Test
+    void testRouting() {
+        // 同一个用户总是路由到同一个段
+        assertEquals(SegmentedStock.home(12345L, 8), SegmentedStock.home(12345L, 8));
+        for (long userId = 0; userId < 100; userId++) {
+            int home = SegmentedStock.home(userId, 8);
+            assertTrue(home >= 0 && home < 8);
+        }
+    }
+
+    @Test
+    void testHashTag() {
+        // 同一个段的库存key和订单key在同一个slot，不同的段分布在不同的slot
+        Set<Integer> slots = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            int slot = SlotHash.getSlot(SegmentedStock.stockKey(10L, i));
+            assertEquals(slot, SlotHash.getSlot(SegmentedStock.orderKey(10L, i)));
+            slots.add(slot);
+        }
+        assertEquals(8, slots.size());
+    }
+
+    @Test
+    void testFallOver() {
+        // 4个段，每段2个库存；用户0、4、8...都路由到第0段
+        segmentedStock.init(VOUCHER_ID, 8);
+        assertTrue(segmentedStock.isSegmented(VOUCHER_ID));
+
+        // 第0段的库存用完后依次从第1、2、3段扣减，所有库存都能卖出
+        for (long userId = 0; userId < 32; userId += 4) {
+            assertEquals(0L, segmentedStock.secKill(VOUCHER_ID, userId), "userId = " + userId);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals("0", values.get(SegmentedStock.stockKey(VOUCHER_ID, i)));
+        }
+        // 订单都记录在用户所在的段
+        assertEquals(8, sets.get(SegmentedStock.orderKey(VOUCHER_ID, 0)).size());
+
+        // 重复下单
+        assertEquals(2L, segmentedStock.secKill(VOUCHER_ID, 8L));
+
+        // 全部不足时返回库存不足并删除占位，之后补充库存还能再买
+        assertEquals(1L, segmentedStock.secKill(VOUCHER_ID, 32L));
+        assertFalse(sets.get(SegmentedStock.orderKey(VOUCHER_ID, 0)).contains("32"));
+        segmentedStock.addStock(VOUCHER_ID, 4);
+        assertEquals(0L, segmentedStock.secKill(VOUCHER_ID, 32L));
+    }
+
+    @Test
+    void testRollback() {
+        segmentedStock.init(VOUCHER_ID, 8);
+        // 用户8从第1段扣减了库存
+        segmentedStock.secKill(VOUCHER_ID, 0L);
+        segmentedStock.secKill(VOUCHER_ID, 4L);
+        segmentedStock.secKill(VOUCHER_ID, 8L);
+        assertEquals("1", values.get(SegmentedStock.stockKey(VOUCHER_ID, 1)));
+
+        // 归还到用户所在的第0段，删除占位后可以重新下单
+        segmentedStock.rollback(VOUCHER_ID, 8L);
+        assertEquals("1", values.get(SegmentedStock.stockKey(VOUCHER_ID, 0)));
+        assertEquals("1", values.get(SegmentedStock.stockKey(VOUCHER_ID, 1)));
+        assertFalse(sets.get(SegmentedStock.orderKey(VOUCHER_ID, 0)).contains("8"));
+
+        // 重复归还不会多归还
+        segmentedStock.rollback(VOUCHER_ID, 8L);
+        assertEquals("1", values.get(SegmentedStock.stockKey(VOUCHER_ID, 0)));
+
+        assertEquals(0L, segmentedStock.secKill(VOUCHER_ID, 8L));
+        assertEquals("0", values.get(SegmentedStock.stockKey(VOUCHER_ID, 0)));
+    }
+
+    @Test
+    void testReconcile() {
+        segmentedStock.init(VOUCHER_ID, 100);
+        for (long userId = 0; userId < 100; userId += 4) {
+            segmentedStock.secKill(VOUCHER_ID, userId);
+        }
+
+        // 第0段卖完，其他段各剩25个
+        Map<String, Object> result = segmentedStock.reconcile(VOUCHER_ID, false);
+        assertArrayEquals(new long[]{0, 25, 25, 25}, (long[]) result.get("segmentStocks"));
+        assertEquals(75L, result.get("stock"));
+        assertEquals(25L, result.get("orders"));
+
+        // 重新分配后各段库存平均，总数不变
+        result = segmentedStock.reconcile(VOUCHER_ID, true);
+        assertArrayEquals(new long[]{19, 19, 19, 18}, (long[]) result.get("segmentStocks"));
+        assertEquals(75L, result.get("stock"));
+        assertEquals(25L, result.get("orders"));
+    }
+
+    @Test
+    void testInvalidate() {
+        // 新增秒杀券之前缓存了不分段
+        assertFalse(segmentedStock.isSegmented(VOUCHER_ID));
+        values.put(SEC_KILL_SEGMENTS_KEY + VOUCHER_ID, "4");
+        assertFalse(segmentedStock.isSegmented(VOUCHER_ID));
+
+        // 收到秒杀券变更消息后重新读取
+        segmentedStock.onMessage(new DefaultMessage(SEC_KILL_VOUCHER_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                VOUCHER_ID.toString().getBytes(StandardCharsets.UTF_8)), null);
+        assertEquals(4, segmentedStock.segments(VOUCHER_ID));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T mock(Class<?> type, org.mockito.stubbing.Answer<?> answer) {
+        return (T) Mockito.mock(type, answer);
+    }
+
+    private Object value(InvocationOnMock invocation) {
+        String key = invocation.getArgument(0);
+        switch (invocation.getMethod().getName()) {
+            case "get":
+                return values.get(key);
+            case "set":
+                values.put(key, invocation.getArgument(1));
+                return null;
+            case "increment":
+                long delta = invocation.getArguments().length > 1 ? invocation.<Long>getArgument(1) : 1;
+                return incrBy(key, delta);
+            default:
+                throw new UnsupportedOperationException(invocation.getMethod().getName());
+        }
+    }
+
+    private Object set(InvocationOnMock invocation) {
+        Set<String> set = sets.computeIfAbsent(invocation.getArgument(0), key -> new HashSet<>());
+        switch (invocation.getMethod().getName()) {
+            case "remove":
+                return set.remove(invocation.<Object>getArgument(1).toString()) ? 1L : 0L;
+            case "size":
+                return (long) set.size();
+            default:
+                throw new UnsupportedOperationException(invocation.getMethod().getName());
+        }
+    }
+
+    // 模拟segmentSeckill.lua和segmentTake.lua
+    private Object script(InvocationOnMock invocation) throws Throwable {
+        if (!invocation.getMethod().getName().startsWith("execute")) {
+            return Mockito.RETURNS_DEFAULTS.answer(invocation);
+        }
+        String name = invocation.getArgument(0);
+        List<String> keys = invocation.getArgument(1);
+        String arg = invocation.getArgument(2).toString();
+        String stockKey = keys.get(0);
+        long stock = Long.parseLong(values.getOrDefault(stockKey, "0"));
+        if (RedisScripts.SEGMENT_SEC_KILL.equals(name)) {
+            Set<String> orders = sets.computeIfAbsent(keys.get(1), key -> new HashSet<>());
+            if (!orders.add(arg)) {
+                return 2L;
+            }
+            if (stock > 0) {
+                incrBy(stockKey, -1);
+                return 0L;
+            }
+            return 3L;
+        }
+        if (RedisScripts.SEGMENT_TAKE.equals(name)) {
+            long count = Math.min(Math.max(stock, 0), Long.parseLong(arg));
+            incrBy(stockKey, -count);
+            return count;
+        }
+        throw new UnsupportedOperationException(name);
+    }
+
+    private long incrBy(String key, long delta) {
+        long value = Long.parseLong(values.getOrDefault(key, "0")) + delta;
+        values.put(key, String.valueOf(value));
+        return value;
+    }
+}
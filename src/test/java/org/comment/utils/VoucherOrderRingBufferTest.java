@@ -0,0 +1,113 @@
+package org.comment.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.comment.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订单环形队列的正确性测试：多个生产者和消费者并发时每个订单恰好取出一次
+ */
+@Slf4j
+class VoucherOrderRingBufferTest {
+
+    private static final int PRODUCERS = 4;
+
+    private static final int CONSUMERS = 2;
+
+    private static final int ORDERS_PER_PRODUCER = 100_000;
+
+    @Test
+    void testFull() throws InterruptedException {
+        VoucherOrderRingBuffer ringBuffer = new VoucherOrderRingBuffer(3, VoucherOrderRingBuffer.WaitStrategy.BLOCKING);
+        assertEquals(4, ringBuffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ringBuffer.offer(i, 10 + i, 100));
+        }
+        // 队列满时立即拒绝
+        assertFalse(ringBuffer.offer(4, 14, 100));
+        assertEquals(1L, ringBuffer.stats().get("rejected"));
+
+        VoucherOrder voucherOrder = ringBuffer.poll();
+        assertEquals(0L, voucherOrder.getId());
+        assertEquals(10L, voucherOrder.getUserId());
+        assertEquals(100L, voucherOrder.getVoucherId());
+        assertTrue(ringBuffer.offer(4, 14, 100));
+
+        List<VoucherOrder> drained = new ArrayList<>();
+        assertEquals(4, ringBuffer.drainTo(drained, 10));
+        assertEquals(4L, drained.get(3).getId());
+        assertNull(ringBuffer.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(4L, ringBuffer.stats().get("highWatermark"));
+    }
+
+    @Test
+    void testConcurrent() throws InterruptedException {
+        for (VoucherOrderRingBuffer.WaitStrategy waitStrategy : VoucherOrderRingBuffer.WaitStrategy.values()) {
+            long begin = System.nanoTime();
+            run(new VoucherOrderRingBuffer(1024, waitStrategy));
+            log.info("{}: {}ms", waitStrategy, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        }
+    }
+
+    private void run(VoucherOrderRingBuffer ringBuffer) throws InterruptedException {
+        int total = PRODUCERS * ORDERS_PER_PRODUCER;
+        BitSet seen = new BitSet(total);
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger received = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS + CONSUMERS);
+        CountDownLatch done = new CountDownLatch(CONSUMERS);
+        for (int c = 0; c < CONSUMERS; c++) {
+            executor.submit(() -> {
+                try {
+                    while (received.get() < total) {
+                        VoucherOrder voucherOrder = ringBuffer.poll(10, TimeUnit.MILLISECONDS);
+                        if (voucherOrder == null) {
+                            continue;
+                        }
+                        int id = voucherOrder.getId().intValue();
+                        assertEquals(id * 2L, voucherOrder.getUserId());
+                        synchronized (seen) {
+                            if (seen.get(id)) {
+                                duplicates.incrementAndGet();
+                            }
+                            seen.set(id);
+                        }
+                        received.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            int producer = p;
+            executor.submit(() -> {
+                for (int i = 0; i < ORDERS_PER_PRODUCER; i++) {
+                    long id = (long) producer * ORDERS_PER_PRODUCER + i;
+                    // 队列满时重试
+                    while (!ringBuffer.offer(id, id * 2, 1)) {
+                        Thread.yield();
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        executor.shutdownNow();
+        assertEquals(0, duplicates.get());
+        assertEquals(total, seen.cardinality());
+        assertEquals(0, ringBuffer.size());
+    }
+}